@@ -1,9 +1,13 @@
 package console;
 
 import sengine.Program;
+import sengine.ProgramBinary;
 import sengine.ProgramParser;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Scanner;
 
@@ -18,15 +22,16 @@ public final class App {
         System.out.println("S-Emulator (Console) — Java 21");
         while (true) {
             printMenu();
-            int choice = readInt("Choose [1-6]: ");
+            int choice = readInt("Choose [1-7]: ");
             switch (choice) {
                 case 1 -> cmdLoadXml();
                 case 2 -> cmdShowProgram();
                 case 3 -> cmdExpand();
                 case 4 -> cmdRun();
                 case 5 -> cmdHistory();
-                case 6 -> { System.out.println("Bye!"); return; }
-                default -> System.out.println("Invalid choice. Please select 1..6.");
+                case 6 -> cmdExport();
+                case 7 -> { System.out.println("Bye!"); return; }
+                default -> System.out.println("Invalid choice. Please select 1..7.");
             }
         }
     }
@@ -38,26 +43,30 @@ public final class App {
         System.out.println("(3) Expand (preview degree)");
         System.out.println("(4) Run program  [use GUI]");
         System.out.println("(5) Show history [use GUI]");
-        System.out.println("(6) Exit");
+        System.out.println("(6) Export program (binary)");
+        System.out.println("(7) Exit");
     }
 
 
 
 
     private static void cmdLoadXml() {
-        System.out.print("Enter full path to XML file: ");
+        System.out.print("Enter full path to XML (or exported binary) file: ");
         String path = sc.nextLine().trim();
         File xml = new File(path);
 
         try {
 
             File xsd = new File("S-Emulator-v2.xsd");
-            if (xsd.exists()) {
-                ProgramParser.validateWithXsd(xml, xsd);
+            Program p;
+            if (ProgramParser.isBinary(xml)) {
+                p = ProgramParser.parseFromBinary(xml);
+            } else {
+                p = xsd.exists()
+                        ? ProgramParser.parseFromXml(xml, xsd)
+                        : ProgramParser.parseFromXml(xml);
             }
 
-            Program p = ProgramParser.parseFromXml(xml);
-
 
 
             currentProgram = p;
@@ -127,6 +136,25 @@ public final class App {
         }
     }
 
+    private static void cmdExport() {
+        if (currentProgram == null) {
+            System.out.println("No program loaded.");
+            return;
+        }
+        String path = readString("Enter full path for the exported file: ").trim();
+        if (path.isEmpty()) return;
+        File out = new File(path);
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out))) {
+                ProgramBinary.write(currentProgram, os);
+            }
+            System.out.println("OK: exported \"" + currentProgram.name + "\" to " + out.getAbsolutePath()
+                    + " (" + out.length() + " bytes).");
+        } catch (Exception ex) {
+            System.out.println("Error: " + ex.getMessage());
+        }
+    }
+
     private static void cmdRun() {
         System.out.println("please use the GUI to Run / Debug.");
     }
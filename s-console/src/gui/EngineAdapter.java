@@ -52,6 +52,13 @@ public class EngineAdapter {
         public RunResult(int y, int cycles, Map<String,Integer> vars) { this.y=y; this.cycles=cycles; this.vars=vars; }
     }
 
+    /** Grid from {@link #sweep}: point k has the last input varying fastest. */
+    public static final class SweepResult {
+        public final int[] dims;
+        public final int[] y, cycles;
+        public SweepResult(int[] dims, int[] y, int[] cycles) { this.dims=dims; this.y=y; this.cycles=cycles; }
+    }
+
     public static final class DebugState {
         public final String runId;
         public final int cycles;
@@ -203,6 +210,54 @@ public class EngineAdapter {
         return new RunResult(y, cycles, vars);
     }
 
+    /** Largest grid the server runs in one sweep. */
+    public static final long MAX_SWEEP_POINTS = 1_000_000;
+
+    /** Runs every point of the grid given by inclusive {from, to} ranges (x1 first) in one request. */
+    public SweepResult sweep(String programId, String function, int degree, int[][] ranges) throws IOException {
+        if (ranges == null || ranges.length == 0) throw new IllegalArgumentException("At least one input range is required");
+        StringBuilder body = new StringBuilder();
+        body.append("{\"programId\":\"").append(jsonEsc(programId))
+                .append("\",\"function\":\"").append(jsonEsc(function))
+                .append("\",\"degree\":").append(degree).append(",\"ranges\":[");
+        long points = 1;
+        int[] dims = new int[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            int[] r = ranges[i];
+            if (r == null || r.length != 2) throw new IllegalArgumentException("Each input range needs a from and a to");
+            if (r[0] < 0 || r[1] < r[0]) throw new IllegalArgumentException("Bad input range " + r[0] + ".." + r[1]);
+            long size = (long) r[1] - r[0] + 1;
+            points *= size;
+            if (points > MAX_SWEEP_POINTS) throw new IllegalArgumentException("At most " + MAX_SWEEP_POINTS + " points per sweep");
+            dims[i] = (int) size;
+            if (i > 0) body.append(',');
+            body.append('[').append(r[0]).append(',').append(r[1]).append(']');
+        }
+        body.append("]}");
+
+        String url = api("/api/runs/sweep");
+        Map<String,Object> reply;
+        try {
+            reply = Json.parseObject(postJson(url, body.toString()));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(url + " → malformed reply: " + ex.getMessage(), ex);
+        }
+        Object err = reply.get("error");
+        if (err != null && !err.toString().isBlank()) throw new IOException(url + " → " + err);
+        if (!Boolean.TRUE.equals(reply.get("done"))) throw new IOException(url + " → incomplete reply");
+
+        int[] y = new int[(int) points], cycles = new int[(int) points];
+        if (!(reply.get("chunks") instanceof List<?> chunks)) throw new IOException(url + " → reply has no chunks");
+        for (Object c : chunks) {
+            if (!(c instanceof Map<?,?> chunk) || !(chunk.get("first") instanceof Number first)
+                    || !fillInts(y, first.longValue(), chunk.get("y"))
+                    || !fillInts(cycles, first.longValue(), chunk.get("cycles"))) {
+                throw new IOException(url + " → malformed chunk in reply");
+            }
+        }
+        return new SweepResult(dims, y, cycles);
+    }
+
     public DebugState startDebug(String programId, String function, List<Integer> inputs, int degree, String arch) throws IOException {
         String url = api("/api/debug/start");
         Map<String,String> form = new LinkedHashMap<>();
@@ -220,6 +275,7 @@ public class EngineAdapter {
     /* ===================== HTTP helpers ===================== */
 
     private static String enc(String s) { return URLEncoder.encode(s, StandardCharsets.UTF_8); }
+    private static String jsonEsc(String s) { return s == null ? "" : s.replace("\\", "\\\\").replace("\"", "\\\""); }
 
     private String get(String urlStr) throws IOException {
         HttpURLConnection c = (HttpURLConnection) new URL(urlStr).openConnection();
@@ -244,6 +300,16 @@ public class EngineAdapter {
         try (InputStream is = okStream(c)) { return new String(is.readAllBytes(), StandardCharsets.UTF_8); }
     }
 
+    private String postJson(String urlStr, String json) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(urlStr).openConnection();
+        c.setRequestMethod("POST");
+        c.setDoOutput(true);
+        c.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        c.setRequestProperty("Accept", "application/json, text/plain, */*");
+        try (OutputStream os = c.getOutputStream()) { os.write(json.getBytes(StandardCharsets.UTF_8)); }
+        try (InputStream is = okStream(c)) { return new String(is.readAllBytes(), StandardCharsets.UTF_8); }
+    }
+
     private String postMultipart(String urlStr, String field, String filename, String mime, byte[] data) throws IOException {
         String boundary = "----SConsoleBoundary" + System.currentTimeMillis();
         HttpURLConnection c = (HttpURLConnection) new URL(urlStr).openConnection();
@@ -295,6 +361,16 @@ public class EngineAdapter {
         while (sm.find()) out.add(sm.group(1));
         return out;
     }
+    /** Copies a JSON list of ints into {@code into} from {@code from}; false if it is not one or does not fit. */
+    private static boolean fillInts(int[] into, long from, Object list) {
+        if (!(list instanceof List<?> xs) || from < 0 || from + xs.size() > into.length) return false;
+        int i = (int) from;
+        for (Object x : xs) {
+            if (!(x instanceof Integer v)) return false;
+            into[i++] = v;
+        }
+        return true;
+    }
     private static Map<String,Integer> extractVars(String json) {
         Map<String,Integer> out = new TreeMap<>();
         Matcher m = Pattern.compile("\"vars\"\\s*:\\s*\\{(.*?)\\}", Pattern.DOTALL).matcher(json);
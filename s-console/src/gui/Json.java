@@ -0,0 +1,130 @@
+package gui;
+
+import java.util.*;
+
+/**
+ * Minimal JSON reader for server replies: objects become LinkedHashMaps, arrays Lists, numbers
+ * Integer (Long when too large, Double with a fraction or exponent). Same rules as the server's
+ * SimpleJson, which the console does not ship with.
+ */
+final class Json {
+
+    private Json() {}
+
+    /** Parses an object; IllegalArgumentException when {@code json} is not one. */
+    static Map<String, Object> parseObject(String json) {
+        Parser p = new Parser(json == null ? "" : json);
+        p.skipWs();
+        if (!p.peek('{')) throw new IllegalArgumentException("Expected a JSON object");
+        Map<String, Object> m = p.readObj();
+        p.skipWs();
+        if (p.i < p.n) throw new IllegalArgumentException("Unexpected text after JSON at " + p.i);
+        return m;
+    }
+
+    private static final class Parser {
+        final String s; int i = 0, n;
+        Parser(String s) { this.s = s; this.n = s.length(); }
+
+        Object readValue() {
+            skipWs();
+            if (i >= n) throw new IllegalArgumentException("Unexpected end of JSON");
+            char c = s.charAt(i);
+            return switch (c) {
+                case '{' -> readObj();
+                case '[' -> readArr();
+                case '"' -> readStr();
+                case 't', 'f' -> readBool();
+                case 'n' -> readNull();
+                default -> readNum();
+            };
+        }
+
+        Map<String, Object> readObj() {
+            i++; // {
+            Map<String, Object> m = new LinkedHashMap<>();
+            skipWs();
+            if (peek('}')) { i++; return m; }
+            while (true) {
+                skipWs();
+                String k = readStr();
+                skipWs(); expect(':'); i++;
+                m.put(k, readValue());
+                skipWs();
+                if (peek('}')) { i++; break; }
+                expect(','); i++;
+            }
+            return m;
+        }
+
+        List<Object> readArr() {
+            i++; // [
+            List<Object> list = new ArrayList<>();
+            skipWs();
+            if (peek(']')) { i++; return list; }
+            while (true) {
+                list.add(readValue());
+                skipWs();
+                if (peek(']')) { i++; break; }
+                expect(','); i++;
+            }
+            return list;
+        }
+
+        String readStr() {
+            expect('"'); i++;
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (i >= n) throw new IllegalArgumentException("Unterminated JSON string");
+                char c = s.charAt(i++);
+                if (c == '"') break;
+                if (c != '\\') { sb.append(c); continue; }
+                if (i >= n) throw new IllegalArgumentException("Unterminated JSON string");
+                char e = s.charAt(i++);
+                switch (e) {
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (i + 4 > n) throw new IllegalArgumentException("Bad JSON escape at " + i);
+                        sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                        i += 4;
+                    }
+                    default -> sb.append(e);
+                }
+            }
+            return sb.toString();
+        }
+
+        Boolean readBool() {
+            if (s.startsWith("true", i)) { i += 4; return Boolean.TRUE; }
+            if (s.startsWith("false", i)) { i += 5; return Boolean.FALSE; }
+            throw new IllegalArgumentException("Invalid boolean at " + i);
+        }
+
+        Object readNull() {
+            if (s.startsWith("null", i)) { i += 4; return null; }
+            throw new IllegalArgumentException("Invalid null at " + i);
+        }
+
+        Number readNum() {
+            int j = i;
+            while (i < n && "+-.eE0123456789".indexOf(s.charAt(i)) >= 0) i++;
+            String token = s.substring(j, i);
+            try {
+                if (token.contains(".") || token.contains("e") || token.contains("E")) return Double.parseDouble(token);
+                long l = Long.parseLong(token);
+                if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) return (int) l;
+                return l;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number at " + j, e);
+            }
+        }
+
+        void skipWs() { while (i < n && Character.isWhitespace(s.charAt(i))) i++; }
+        boolean peek(char c) { return i < n && s.charAt(i) == c; }
+        void expect(char c) { if (!peek(c)) throw new IllegalArgumentException("Expected '" + c + "' at " + i); }
+    }
+}
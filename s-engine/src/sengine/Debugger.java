@@ -21,6 +21,7 @@ public final class Debugger {
     }
 
     private final Program.Rendered rendered;
+    private final int degree;
     private final LinkedHashMap<String,Integer> vars = new LinkedHashMap<>();
     private final Map<String,Integer> prevVars = new LinkedHashMap<>();
 
@@ -30,8 +31,8 @@ public final class Debugger {
     private final Map<String,Integer> labelToIndex = new HashMap<>();
 
     public Debugger(Program program, int degree, List<Integer> inputs) {
-        degree = Math.max(0, Math.min(degree, program.maxDegree()));
-        this.rendered = program.expandToDegree(degree);
+        this.degree = Math.max(0, Math.min(degree, program.maxDegree()));
+        this.rendered = program.expandToDegree(this.degree);
 
         vars.put("y", 0);
         if (inputs != null) {
@@ -44,8 +45,27 @@ public final class Debugger {
         }
     }
 
+    /**
+     * Rebuilds a debugger at a saved point (as taken from {@link #snapshot()} and {@link #previousVars()}),
+     * reusing the program's cached rendering for {@code degree}.
+     */
+    public static Debugger restore(Program program, int degree, int pc, int cycles, boolean halted,
+                                   Map<String,Integer> vars, Map<String,Integer> prevVars) {
+        Debugger d = new Debugger(program, degree, List.of());
+        d.vars.clear();
+        d.vars.putAll(vars);
+        d.prevVars.putAll(prevVars);
+        d.pc = pc;
+        d.cycles = cycles;
+        d.halted = halted;
+        return d;
+    }
+
     public Program.Rendered rendered() { return rendered; }
+    public int degree() { return degree; }
     public Snapshot snapshot() { return new Snapshot(pc, cycles, halted, copy(vars), Map.of()); }
+    /** Variables as they were before the last step. */
+    public Map<String,Integer> previousVars() { return new LinkedHashMap<>(prevVars); }
 
 
     public Snapshot step() {
@@ -1,8 +1,6 @@
 package sengine;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public abstract class Instruction {
@@ -32,97 +30,182 @@ public abstract class Instruction {
         return String.format("#%d (%s) %s %s (%d)", number, prettyType(), lblBox, text, c);
     }
 
-    private static final Pattern P_INC   = Pattern.compile("^\\s*([xyz]\\d*|y)\\s*<-\\s*\\1\\s*\\+\\s*1\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_DEC   = Pattern.compile("^\\s*([xyz]\\d*|y)\\s*<-\\s*\\1\\s*-\\s*1\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_NOP   = Pattern.compile("^\\s*([xyz]\\d*|y)\\s*<-\\s*\\1\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_IFNZ  = Pattern.compile("^\\s*IF\\s+([xyz]\\d*|y)\\s*!=\\s*0\\s*GOTO\\s*(EXIT|L\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-
-    private static final Pattern P_SET0  = Pattern.compile("^\\s*([xyz]\\d*|y)\\s*<-\\s*0\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_SETN  = Pattern.compile("^\\s*([xyz]\\d*|y)\\s*<-\\s*(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_ADDN  = Pattern.compile("^\\s*([xyz]\\d*|y)\\s*<-\\s*\\1\\s*\\+\\s*(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_SUBN  = Pattern.compile("^\\s*([xyz]\\d*|y)\\s*<-\\s*\\1\\s*-\\s*(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-
-    private static final Pattern P_ASSIGN= Pattern.compile("^\\s*ASSIGN\\s+([xyz]\\d*|y)\\s*<-\\s*([xyz]\\d*|y)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_GOTO  = Pattern.compile("^\\s*GOTO\\s*(EXIT|L\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-
-    private static final Pattern P_IFZ   = Pattern.compile("^\\s*IF\\s+([xyz]\\d*|y)\\s*==\\s*0\\s*GOTO\\s*(EXIT|L\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_IFEQC = Pattern.compile("^\\s*IF\\s+([xyz]\\d*|y)\\s*==\\s*(\\d+)\\s*GOTO\\s*(EXIT|L\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern P_IFEQV = Pattern.compile("^\\s*IF\\s+([xyz]\\d*|y)\\s*==\\s*([xyz]\\d*|y)\\s*GOTO\\s*(EXIT|L\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
-
     public static Instruction parseFromText(String label, String cmdText, String typeHint, Integer cyclesOpt) {
         String t = cmdText.trim();
         int declared = cyclesOpt == null ? -1 : cyclesOpt;
-        Matcher m;
 
+        Instruction ins = recognize(label, t, declared);
+        if (ins != null) return ins;
+
+        if (typeHint != null && typeHint.equalsIgnoreCase("B"))
+            return new OpaqueBasic(label, t, declared);
+        return new OpaqueSynthetic(label, t, declared);
+    }
+
+    /*
+     * Single left-to-right pass over the command. The first character already tells the forms
+     * apart (a variable, IF, GOTO or ASSIGN), so each line is scanned once instead of being tried
+     * against every pattern. Whitespace rules, case-insensitivity and the "0" / "1" special cases
+     * follow the grammar the instruction patterns used to encode.
+     */
+    private static Instruction recognize(String label, String t, int declared) {
+        Cursor c = new Cursor(t);
 
-        if ((m = P_INC.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            return new Inc(label, t, declared, v);
+        if (c.keyword("IF")) {
+            if (!c.spaces()) return null;
+            String v = c.var();
+            if (v == null) return null;
+            c.skipSpaces();
+            if (c.symbol("!=")) {
+                c.skipSpaces();
+                String n = c.digits();
+                if (!"0".equals(n)) return null;
+                String target = c.gotoTarget();
+                if (target == null) return null;
+                return new IfNzGoto(label, t, declared, VariableRef.parse(v), target);
+            }
+            if (!c.symbol("==")) return null;
+            c.skipSpaces();
+            String n = c.digits();
+            if (n != null) {
+                String target = c.gotoTarget();
+                if (target == null) return null;
+                if (n.equals("0")) return new IfZeroGoto(label, t, declared, VariableRef.parse(v), target);
+                return new IfEqConstGoto(label, t, declared, VariableRef.parse(v), Integer.parseInt(n), target);
+            }
+            String b = c.var();
+            if (b == null) return null;
+            String target = c.gotoTarget();
+            if (target == null) return null;
+            return new IfEqVarGoto(label, t, declared, VariableRef.parse(v), VariableRef.parse(b), target);
         }
-        if ((m = P_DEC.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            return new Dec(label, t, declared, v);
+
+        if (c.keyword("GOTO")) {
+            c.skipSpaces();
+            String target = c.label();
+            if (target == null || !c.atEnd()) return null;
+            return new Goto(label, t, declared, target);
         }
-        if ((m = P_NOP.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            return new Nop(label, t, declared, v);
+
+        if (c.keyword("ASSIGN")) {
+            if (!c.spaces()) return null;
+            String dst = c.var();
+            if (dst == null || !c.arrow()) return null;
+            String src = c.var();
+            if (src == null || !c.atEnd()) return null;
+            return new Assign(label, t, declared, VariableRef.parse(dst), VariableRef.parse(src));
         }
-        if ((m = P_IFNZ.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            String target = m.group(2).toUpperCase(Locale.ROOT);
-            return new IfNzGoto(label, t, declared, v, target);
+
+        String v = c.var();
+        if (v == null || !c.arrow()) return null;
+
+        String n = c.digits();
+        if (n != null) {
+            if (!c.atEnd()) return null;
+            if (n.equals("0")) return new SetZero(label, t, declared, VariableRef.parse(v));
+            return new SetConst(label, t, declared, VariableRef.parse(v), Integer.parseInt(n));
         }
 
+        String same = c.var();
+        if (same == null || !same.equalsIgnoreCase(v)) return null;
+        c.skipSpaces();
+        if (c.atEnd()) return new Nop(label, t, declared, VariableRef.parse(v));
 
-        if ((m = P_SET0.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            return new SetZero(label, t, declared, v);
+        boolean plus = c.symbol("+");
+        if (!plus && !c.symbol("-")) return null;
+        c.skipSpaces();
+        n = c.digits();
+        if (n == null || !c.atEnd()) return null;
+        if (n.equals("1")) {
+            return plus ? new Inc(label, t, declared, VariableRef.parse(v))
+                        : new Dec(label, t, declared, VariableRef.parse(v));
         }
-        if ((m = P_SETN.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            int n = Integer.parseInt(m.group(2));
-            return new SetConst(label, t, declared, v, n);
+        int k = Integer.parseInt(n);
+        return plus ? new AddConst(label, t, declared, VariableRef.parse(v), k)
+                    : new SubConst(label, t, declared, VariableRef.parse(v), k);
+    }
+
+    private static final class Cursor {
+        private final String s;
+        private int i;
+
+        Cursor(String s) { this.s = s; }
+
+        boolean atEnd() {
+            skipSpaces();
+            return i == s.length();
         }
-        if ((m = P_ADDN.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            int n = Integer.parseInt(m.group(2));
-            return new AddConst(label, t, declared, v, n);
+
+        void skipSpaces() {
+            while (i < s.length() && isSpace(s.charAt(i))) i++;
         }
-        if ((m = P_SUBN.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            int n = Integer.parseInt(m.group(2));
-            return new SubConst(label, t, declared, v, n);
+
+        /** At least one whitespace character. */
+        boolean spaces() {
+            int from = i;
+            skipSpaces();
+            return i > from;
         }
-        if ((m = P_ASSIGN.matcher(t)).matches()) {
-            VariableRef dst = VariableRef.parse(m.group(1));
-            VariableRef src = VariableRef.parse(m.group(2));
-            return new Assign(label, t, declared, dst, src);
+
+        boolean keyword(String kw) {
+            if (!s.regionMatches(true, i, kw, 0, kw.length())) return false;
+            i += kw.length();
+            return true;
         }
-        if ((m = P_GOTO.matcher(t)).matches()) {
-            String target = m.group(1).toUpperCase(Locale.ROOT);
-            return new Goto(label, t, declared, target);
+
+        boolean symbol(String sym) {
+            if (!s.startsWith(sym, i)) return false;
+            i += sym.length();
+            return true;
         }
-        if ((m = P_IFZ.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            String target = m.group(2).toUpperCase(Locale.ROOT);
-            return new IfZeroGoto(label, t, declared, v, target);
+
+        /** {@code \s*<-\s*} */
+        boolean arrow() {
+            skipSpaces();
+            if (!symbol("<-")) return false;
+            skipSpaces();
+            return true;
         }
-        if ((m = P_IFEQC.matcher(t)).matches()) {
-            VariableRef v = VariableRef.parse(m.group(1));
-            int c = Integer.parseInt(m.group(2));
-            String target = m.group(3).toUpperCase(Locale.ROOT);
-            return new IfEqConstGoto(label, t, declared, v, c, target);
+
+        /** A variable token {@code [xyz]\d*}, case-insensitive. */
+        String var() {
+            if (i >= s.length()) return null;
+            char c = Character.toLowerCase(s.charAt(i));
+            if (c != 'x' && c != 'y' && c != 'z') return null;
+            int from = i++;
+            while (i < s.length() && isDigit(s.charAt(i))) i++;
+            return s.substring(from, i);
         }
-        if ((m = P_IFEQV.matcher(t)).matches()) {
-            VariableRef a = VariableRef.parse(m.group(1));
-            VariableRef b = VariableRef.parse(m.group(2));
-            String target = m.group(3).toUpperCase(Locale.ROOT);
-            return new IfEqVarGoto(label, t, declared, a, b, target);
+
+        String digits() {
+            int from = i;
+            while (i < s.length() && isDigit(s.charAt(i))) i++;
+            return (i > from) ? s.substring(from, i) : null;
         }
 
-        if (typeHint != null && typeHint.equalsIgnoreCase("B"))
-            return new OpaqueBasic(label, t, declared);
-        return new OpaqueSynthetic(label, t, declared);
+        /** {@code EXIT} or {@code L\d+}, upper-cased. */
+        String label() {
+            if (keyword("EXIT")) return "EXIT";
+            if (i >= s.length() || Character.toUpperCase(s.charAt(i)) != 'L') return null;
+            int from = i++;
+            if (digits() == null) { i = from; return null; }
+            return s.substring(from, i).toUpperCase(Locale.ROOT);
+        }
+
+        /** {@code \s*GOTO\s*LABEL\s*$} */
+        String gotoTarget() {
+            skipSpaces();
+            if (!keyword("GOTO")) return null;
+            skipSpaces();
+            String target = label();
+            return (target != null && atEnd()) ? target : null;
+        }
+
+        private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+
+        private static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+        }
     }
 
     static final class Inc extends Instruction {
@@ -223,6 +306,28 @@ public abstract class Instruction {
         @Override public List<Instruction> expand() { return List.of(this); }
     }
 
+    /** Zero-cycle copy used by the execution-only rendering to pass arguments; a null src means 0. */
+    static final class Transfer extends Instruction {
+        final VariableRef dst, src;
+        Transfer(String label, VariableRef dst, VariableRef src) {
+            super(label, dst.name() + " <- " + (src == null ? "0" : src.name()), true, 0, null); this.dst=dst; this.src=src;
+        }
+        @Override public int cycles() { return 0; }
+        @Override public List<Instruction> expand() { return List.of(this); }
+    }
+    static final class SubCall extends Instruction {
+        final String target;
+        SubCall(String label, String target) { super(label, "CALL " + target, true, 0, null); this.target=target; }
+        @Override public int cycles() { return 0; }
+        @Override public List<Instruction> expand() { return List.of(this); }
+    }
+    /** Returns to the instruction after the matching CALL; with no pending CALL the run halts. */
+    static final class SubReturn extends Instruction {
+        SubReturn(String label) { super(label, "RET", true, 0, null); }
+        @Override public int cycles() { return 0; }
+        @Override public List<Instruction> expand() { return List.of(this); }
+    }
+
     static final class OpaqueSynthetic extends Synthetic {
         OpaqueSynthetic(String label, String text, int declaredCycles) { super(label, text, declaredCycles); }
         @Override public int cycles() { return declaredCycles > 0 ? declaredCycles : 1; }
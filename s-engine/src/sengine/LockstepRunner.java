@@ -0,0 +1,432 @@
+package sengine;
+
+import java.util.*;
+import java.util.regex.Matcher;
+
+/**
+ * Runs one program over many input vectors ("lanes") at once, with the same results per lane as
+ * {@link Runner#run}.
+ *
+ * The executable rendering is decoded once into opcode arrays, and registers are held as one
+ * {@code int[]} per variable across lanes. Lanes waiting at the same instruction form a group that
+ * is executed together, so decoding and dispatch are paid once per group rather than once per lane.
+ * The group at the lowest pc always runs next, which lets lanes that branched apart meet up again
+ * at join points and loop exits.
+ */
+public final class LockstepRunner {
+
+    private LockstepRunner() {}
+
+    public static final class Result {
+        public final int[] y;
+        public final int[] cycles;
+        /** Lanes stopped because the {@link Runner.CycleMeter} granted no more cycles. */
+        public final boolean[] meterExhausted;
+
+        Result(int[] y, int[] cycles, boolean[] meterExhausted) {
+            this.y = y;
+            this.cycles = cycles;
+            this.meterExhausted = meterExhausted;
+        }
+
+        public long totalCycles() {
+            long sum = 0;
+            for (int c : cycles) sum += c;
+            return sum;
+        }
+    }
+
+    private static final int NOP = 0, TRANSFER = 1, CALL = 2, RET = 3, GOTO = 4,
+            IF_ZERO = 5, IF_NOT_ZERO = 6, IF_EQ_VAR = 7, IF_EQ_CONST = 8,
+            INC = 9, DEC = 10, ASSIGN = 11, SET = 12, FAIL = 13;
+
+    /** Jump target meaning "halt this lane". */
+    private static final int EXIT = -1;
+
+    /** The rendering decoded into parallel arrays, one slot per instruction. */
+    private static final class Code {
+        final int[] op, a, b, target, cost;
+        final RuntimeException[] fail;
+        final Map<String, Integer> varIndex = new HashMap<>();
+
+        Code(int n) {
+            op = new int[n];
+            a = new int[n];
+            b = new int[n];
+            target = new int[n];
+            cost = new int[n];
+            fail = new RuntimeException[n];
+        }
+
+        int var(String name) {
+            return varIndex.computeIfAbsent(name, k -> varIndex.size());
+        }
+    }
+
+    public static Result run(Program program, int degree, List<List<Integer>> inputs) {
+        return run(program, degree, inputs, null);
+    }
+
+    /**
+     * Runs every input vector; with a meter, all lanes still running stop together once it grants no
+     * more cycles. Errors (an unknown label, say) fail the whole call, as they would fail a single run.
+     */
+    public static Result run(Program program, int degree, List<List<Integer>> inputs, Runner.CycleMeter meter) {
+        if (program == null) throw new IllegalArgumentException("Program is null");
+        degree = Math.max(0, Math.min(degree, program.maxDegree()));
+        Code code = decode(program.executable(degree).list);
+
+        int lanes = inputs.size();
+        int y = code.var("y");
+        int width = 0;
+        for (List<Integer> in : inputs) width = Math.max(width, in == null ? 0 : in.size());
+        for (int i = 1; i <= width; i++) code.var("x" + i);
+
+        int[][] regs = new int[code.varIndex.size()][lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            List<Integer> in = inputs.get(lane);
+            if (in == null) continue;
+            for (int i = 0; i < in.size(); i++) regs[code.varIndex.get("x" + (i + 1))][lane] = Math.max(0, in.get(i));
+        }
+
+        int[] cycles = new int[lanes];
+        boolean[] exhausted = new boolean[lanes];
+        new Machine(code, regs, cycles, exhausted, meter).run(lanes);
+
+        int[] out = new int[lanes];
+        System.arraycopy(regs[y], 0, out, 0, lanes);
+        return new Result(out, cycles, exhausted);
+    }
+
+    /** Mirrors the dispatch order of {@link Runner#run}, so each instruction decodes to what Runner would do. */
+    private static Code decode(List<Instruction> list) {
+        int n = list.size();
+        Code code = new Code(n);
+        Map<String, Integer> labelToIndex = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            String lbl = list.get(i).label;
+            if (lbl != null && !lbl.isBlank()) labelToIndex.put(lbl.toUpperCase(Locale.ROOT), i);
+        }
+
+        for (int pc = 0; pc < n; pc++) {
+            Instruction inst = list.get(pc);
+            String text = inst.text == null ? "" : inst.text.trim();
+            code.cost[pc] = Math.max(0, inst.cycles());
+
+            if (inst instanceof Instruction.Transfer t) {
+                code.op[pc] = TRANSFER;
+                code.a[pc] = code.var(t.dst.name());
+                code.b[pc] = (t.src == null) ? -1 : code.var(t.src.name());
+                continue;
+            }
+            if (inst instanceof Instruction.SubCall c) {
+                Integer idx = labelToIndex.get(c.target.toUpperCase(Locale.ROOT));
+                if (idx == null) fail(code, pc, new IllegalStateException("Unknown label: " + c.target));
+                else jump(code, pc, CALL, idx);
+                continue;
+            }
+            if (inst instanceof Instruction.SubReturn) {
+                code.op[pc] = RET;
+                continue;
+            }
+
+            Matcher m;
+            if ((m = Runner.RX_GOTO.matcher(text)).matches()) {
+                String target = m.group(1).toUpperCase(Locale.ROOT);
+                branch(code, labelToIndex, pc, GOTO, target);
+            } else if ((m = Runner.RX_IF_EQ_ZERO.matcher(text)).matches()) {
+                code.a[pc] = code.var(m.group(1));
+                branch(code, labelToIndex, pc, IF_ZERO, m.group(2));
+            } else if ((m = Runner.RX_IF_NE_ZERO.matcher(text)).matches()) {
+                code.a[pc] = code.var(m.group(1));
+                branch(code, labelToIndex, pc, IF_NOT_ZERO, m.group(2));
+            } else if ((m = Runner.RX_IF_EQ_VAR.matcher(text)).matches()) {
+                code.a[pc] = code.var(m.group(1));
+                code.b[pc] = code.var(m.group(2));
+                branch(code, labelToIndex, pc, IF_EQ_VAR, m.group(3));
+            } else if ((m = Runner.RX_IF_EQ_CONST.matcher(text)).matches()) {
+                code.a[pc] = code.var(m.group(1));
+                try {
+                    code.b[pc] = Integer.parseInt(m.group(2));
+                    branch(code, labelToIndex, pc, IF_EQ_CONST, m.group(3));
+                } catch (NumberFormatException ex) {
+                    fail(code, pc, ex);
+                }
+            } else if ((m = Runner.RX_INC.matcher(text)).matches()) {
+                code.op[pc] = INC;
+                code.a[pc] = code.var(m.group(1));
+            } else if ((m = Runner.RX_DEC.matcher(text)).matches()) {
+                code.op[pc] = DEC;
+                code.a[pc] = code.var(m.group(1));
+            } else if ((m = Runner.RX_ASSIGN_VAR.matcher(text)).matches()) {
+                code.op[pc] = ASSIGN;
+                code.a[pc] = code.var(m.group(1));
+                code.b[pc] = code.var(m.group(2));
+            } else if ((m = Runner.RX_ASSIGN_CONST.matcher(text)).matches()) {
+                code.a[pc] = code.var(m.group(1));
+                try {
+                    code.b[pc] = Math.max(0, Integer.parseInt(m.group(2)));
+                    code.op[pc] = SET;
+                } catch (NumberFormatException ex) {
+                    fail(code, pc, ex);
+                }
+            } else if ((m = Runner.RX_ZERO.matcher(text)).matches()) {
+                code.op[pc] = SET;
+                code.a[pc] = code.var(m.group(1));
+                code.b[pc] = 0;
+            } else {
+                code.op[pc] = NOP;
+            }
+        }
+        return code;
+    }
+
+    private static void branch(Code code, Map<String, Integer> labelToIndex, int pc, int op, String target) {
+        if (target.equalsIgnoreCase("EXIT")) {
+            jump(code, pc, op, EXIT);
+            return;
+        }
+        Integer idx = labelToIndex.get(target.toUpperCase(Locale.ROOT));
+        if (idx == null) {
+            if (op != GOTO) code.op[pc] = op;
+            fail(code, pc, new IllegalStateException("Unknown label: " + target));
+        } else {
+            jump(code, pc, op, idx);
+        }
+    }
+
+    private static void jump(Code code, int pc, int op, int target) {
+        code.op[pc] = op;
+        code.target[pc] = target;
+    }
+
+    /**
+     * An instruction Runner would only fail on when it executes; the error is raised when a lane
+     * reaches it, or, for a conditional jump, when a lane takes it.
+     */
+    private static void fail(Code code, int pc, RuntimeException ex) {
+        code.fail[pc] = ex;
+        if (code.op[pc] == NOP) code.op[pc] = FAIL;
+        else code.target[pc] = EXIT;
+    }
+
+    /** Per-pc lane lists plus a min-heap of the pcs that have lanes waiting. */
+    private static final class Machine {
+        final Code code;
+        final int[][] regs;
+        final int[] cycles;
+        final boolean[] exhausted;
+        final Runner.CycleMeter meter;
+
+        final int[][] lanesAt;
+        final int[] countAt;
+        final int[] heap;
+        int heapSize;
+
+        int[][] stack;
+        int[] depth;
+
+        long used;
+        long allowance;
+
+        Machine(Code code, int[][] regs, int[] cycles, boolean[] exhausted, Runner.CycleMeter meter) {
+            this.code = code;
+            this.regs = regs;
+            this.cycles = cycles;
+            this.exhausted = exhausted;
+            this.meter = meter;
+            int n = code.op.length;
+            this.lanesAt = new int[n][];
+            this.countAt = new int[n];
+            this.heap = new int[n];
+            this.allowance = (meter == null) ? Long.MAX_VALUE : 0;
+        }
+
+        void run(int lanes) {
+            if (lanes == 0 || code.op.length == 0) return;
+            int[] all = new int[lanes];
+            for (int i = 0; i < lanes; i++) all[i] = i;
+            lanesAt[0] = all;
+            countAt[0] = lanes;
+            offer(0);
+
+            while (heapSize > 0) {
+                int pc = poll();
+                int[] group = lanesAt[pc];
+                int n = countAt[pc];
+                lanesAt[pc] = null;
+                countAt[pc] = 0;
+
+                int cost = code.cost[pc];
+                long need = (long) cost * n;
+                if (used + need > allowance) {
+                    allowance += more(need - (allowance - used));
+                    if (used + need > allowance) {
+                        for (int i = 0; i < n; i++) exhausted[group[i]] = true;
+                        stopWaiting();
+                        return;
+                    }
+                }
+                used += need;
+                for (int i = 0; i < n; i++) cycles[group[i]] += cost;
+
+                execute(pc, group, n);
+            }
+        }
+
+        private void execute(int pc, int[] group, int n) {
+            int a = code.a[pc], b = code.b[pc], target = code.target[pc];
+            switch (code.op[pc]) {
+                case TRANSFER -> {
+                    int[] dst = regs[a];
+                    if (b < 0) for (int i = 0; i < n; i++) dst[group[i]] = 0;
+                    else {
+                        int[] src = regs[b];
+                        for (int i = 0; i < n; i++) dst[group[i]] = src[group[i]];
+                    }
+                    moveAll(group, n, pc + 1);
+                }
+                case INC -> {
+                    int[] r = regs[a];
+                    for (int i = 0; i < n; i++) r[group[i]] = Math.max(0, r[group[i]] + 1);
+                    moveAll(group, n, pc + 1);
+                }
+                case DEC -> {
+                    int[] r = regs[a];
+                    for (int i = 0; i < n; i++) r[group[i]] = Math.max(0, r[group[i]] - 1);
+                    moveAll(group, n, pc + 1);
+                }
+                case ASSIGN -> {
+                    int[] dst = regs[a], src = regs[b];
+                    for (int i = 0; i < n; i++) dst[group[i]] = src[group[i]];
+                    moveAll(group, n, pc + 1);
+                }
+                case SET -> {
+                    int[] r = regs[a];
+                    for (int i = 0; i < n; i++) r[group[i]] = b;
+                    moveAll(group, n, pc + 1);
+                }
+                case GOTO -> {
+                    if (target != EXIT) moveAll(group, n, target);
+                }
+                case IF_ZERO, IF_NOT_ZERO, IF_EQ_VAR, IF_EQ_CONST -> branch(pc, group, n);
+                case CALL -> {
+                    for (int i = 0; i < n; i++) push(group[i], pc + 1);
+                    moveAll(group, n, target);
+                }
+                case RET -> {
+                    for (int i = 0; i < n; i++) {
+                        int lane = group[i];
+                        if (depth == null || depth[lane] == 0) continue;
+                        add(stack[lane][--depth[lane]], lane);
+                    }
+                }
+                case FAIL -> throw code.fail[pc];
+                default -> moveAll(group, n, pc + 1);
+            }
+        }
+
+        private void branch(int pc, int[] group, int n) {
+            int op = code.op[pc];
+            int[] ra = regs[code.a[pc]];
+            int[] rb = (op == IF_EQ_VAR) ? regs[code.b[pc]] : null;
+            int c = code.b[pc];
+            int target = code.target[pc];
+            for (int i = 0; i < n; i++) {
+                int lane = group[i];
+                int v = ra[lane];
+                boolean taken = switch (op) {
+                    case IF_ZERO -> v == 0;
+                    case IF_NOT_ZERO -> v != 0;
+                    case IF_EQ_VAR -> v == rb[lane];
+                    default -> v == c;
+                };
+                if (!taken) add(pc + 1, lane);
+                else if (code.fail[pc] != null) throw code.fail[pc];
+                else if (target != EXIT) add(target, lane);
+            }
+        }
+
+        private long more(long needed) {
+            long got = 0;
+            while (got < needed) {
+                long g = meter.grant(used);
+                if (g <= 0) break;
+                got += g;
+            }
+            return got;
+        }
+
+        /** Marks every lane still queued as stopped by the meter. */
+        private void stopWaiting() {
+            while (heapSize > 0) {
+                int pc = poll();
+                for (int i = 0; i < countAt[pc]; i++) exhausted[lanesAt[pc][i]] = true;
+            }
+        }
+
+        /** Moves a whole group to {@code next}, handing over its array when nobody waits there yet. */
+        private void moveAll(int[] group, int n, int next) {
+            if (next >= code.op.length) return;
+            if (countAt[next] == 0) {
+                lanesAt[next] = group;
+                countAt[next] = n;
+                offer(next);
+                return;
+            }
+            for (int i = 0; i < n; i++) add(next, group[i]);
+        }
+
+        private void add(int pc, int lane) {
+            if (pc < 0 || pc >= code.op.length) return;
+            int[] at = lanesAt[pc];
+            int n = countAt[pc];
+            if (at == null) {
+                at = lanesAt[pc] = new int[8];
+            } else if (n == at.length) {
+                at = lanesAt[pc] = Arrays.copyOf(at, n * 2);
+            }
+            at[n] = lane;
+            countAt[pc] = n + 1;
+            if (n == 0) offer(pc);
+        }
+
+        private void push(int lane, int returnPc) {
+            if (stack == null) {
+                stack = new int[cycles.length][];
+                depth = new int[cycles.length];
+            }
+            int[] s = stack[lane];
+            if (s == null) s = stack[lane] = new int[4];
+            else if (depth[lane] == s.length) s = stack[lane] = Arrays.copyOf(s, s.length * 2);
+            s[depth[lane]++] = returnPc;
+        }
+
+        private void offer(int pc) {
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= pc) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = pc;
+        }
+
+        private int poll() {
+            int top = heap[0];
+            int last = heap[--heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= last) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+}
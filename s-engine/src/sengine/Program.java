@@ -1,6 +1,8 @@
 package sengine;
 
+import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.function.IntFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,19 +15,49 @@ public final class Program {
         public final List<List<String>> originChains;
         public final List<String> lines;
         public final int sumCycles;
+        /** z variables from this index up belong to the shared-call machinery, not to the display view. */
+        public final int scratchZ;
 
         public Rendered(String name, List<Instruction> list, List<List<String>> originChains) {
+            this(name, list, originChains, Integer.MAX_VALUE);
+        }
+
+        Rendered(String name, List<Instruction> list, List<List<String>> originChains, int scratchZ) {
             this.name = name;
             this.list = list;
             this.originChains = originChains;
             this.lines = toLines(list);
             this.sumCycles = sumCyclesOf(list);
+            this.scratchZ = scratchZ;
+        }
+    }
+
+    public static final class Estimate {
+        public final int degree;
+        public final long instructions;
+        public final long cycles;
+
+        public Estimate(int degree, long instructions, long cycles) {
+            this.degree = degree;
+            this.instructions = instructions;
+            this.cycles = cycles;
         }
     }
 
+    /** Upper bound on instructions produced by inlining function calls in one expansion. */
+    public static final int MAX_EXPANDED_INSTRUCTIONS = 1_000_000;
+
+    /**
+     * First z of the shared-call machinery (a shared body's y, parameters and locals). Everything
+     * below is numbered exactly as in {@link #expandToDegree}, far short of this for any expansion.
+     */
+    static final int MACHINE_Z = 1 << 30;
+
     public final String name;
     public final List<Instruction> instructions;
     public final Map<String, List<Instruction>> functions;
+    private final Map<String, Set<String>> callGraph;
+    private final List<String> calleesFirst;
 
     public Program(String name, List<Instruction> instructions) {
         this(name, instructions, new LinkedHashMap<>());
@@ -36,6 +68,100 @@ public final class Program {
         this.name = name;
         this.instructions = new ArrayList<>(instructions);
         this.functions = (functions == null) ? new LinkedHashMap<>() : new LinkedHashMap<>(functions);
+        this.callGraph = buildCallGraph(this.functions);
+        this.calleesFirst = calleesFirst(this.callGraph);
+    }
+
+    /** Functions each function quotes directly, including nested call arguments. */
+    public Map<String, Set<String>> callGraph() {
+        return callGraph;
+    }
+
+    private static Map<String, Set<String>> buildCallGraph(Map<String, List<Instruction>> functions) {
+        Map<String, Set<String>> graph = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Instruction>> e : functions.entrySet()) {
+            Set<String> callees = new LinkedHashSet<>();
+            for (Instruction ins : e.getValue()) {
+                String text = (ins.text == null) ? "" : ins.text;
+                Matcher m = RX_QUOTE.matcher(text);
+                if (m.matches()) {
+                    callees.add(m.group(2));
+                    collectCalls(m.group(3), callees);
+                    continue;
+                }
+                Matcher j = RX_JEF.matcher(text);
+                if (j.matches()) {
+                    callees.add(j.group(2));
+                    collectCalls(j.group(3), callees);
+                }
+            }
+            graph.put(e.getKey(), Collections.unmodifiableSet(callees));
+        }
+        return Collections.unmodifiableMap(graph);
+    }
+
+    private static void collectCalls(String argsStr, Set<String> out) {
+        if (argsStr == null || argsStr.isBlank()) return;
+        for (String raw : splitTopLevelByComma(argsStr.trim())) {
+            String it = raw.trim();
+            if (it.isEmpty()) continue;
+            if (it.charAt(0) == '(' && matchingParenPos(it, 0) == it.length() - 1) {
+                String inner = it.substring(1, it.length() - 1).trim();
+                int cut = firstTopLevelComma(inner);
+                out.add((cut < 0 ? inner : inner.substring(0, cut)).trim());
+                if (cut >= 0) collectCalls(inner.substring(cut + 1), out);
+                continue;
+            }
+            int lp = it.indexOf('(');
+            if (lp > 0 && matchingParenPos(it, lp) == it.length() - 1) {
+                out.add(it.substring(0, lp).trim());
+                collectCalls(it.substring(lp + 1, it.length() - 1), out);
+            }
+        }
+    }
+
+    /**
+     * Orders functions so every callee precedes its callers. Inlining a recursive function never
+     * terminates, so a cycle is rejected here, when the program is built.
+     */
+    private static List<String> calleesFirst(Map<String, Set<String>> graph) {
+        List<String> order = new ArrayList<>(graph.size());
+        Map<String, Integer> state = new HashMap<>();
+        for (String root : graph.keySet()) {
+            if (state.containsKey(root)) continue;
+
+            Deque<String> path = new ArrayDeque<>();
+            Deque<Iterator<String>> pending = new ArrayDeque<>();
+            path.addLast(root);
+            pending.addLast(graph.get(root).iterator());
+            state.put(root, 1);
+
+            while (!pending.isEmpty()) {
+                Iterator<String> it = pending.peekLast();
+                if (!it.hasNext()) {
+                    String done = path.removeLast();
+                    state.put(done, 2);
+                    order.add(done);
+                    pending.removeLast();
+                    continue;
+                }
+                String next = it.next();
+                Set<String> callees = graph.get(next);
+                if (callees == null) continue;
+
+                Integer st = state.get(next);
+                if (st == null) {
+                    state.put(next, 1);
+                    path.addLast(next);
+                    pending.addLast(callees.iterator());
+                } else if (st == 1) {
+                    List<String> cycle = new ArrayList<>(path);
+                    cycle = cycle.subList(cycle.indexOf(next), cycle.size());
+                    throw new IllegalArgumentException("Recursive function: " + String.join(" -> ", cycle) + " -> " + next);
+                }
+            }
+        }
+        return Collections.unmodifiableList(order);
     }
 
     public int maxDegree() {
@@ -51,21 +177,178 @@ public final class Program {
     }
 
 
+    /**
+     * Size and static cycle sum (as in {@link Rendered#sumCycles}) of {@code expandToDegree(degree)},
+     * computed from per-function costs without expanding anything. Values saturate at Long.MAX_VALUE.
+     */
+    public Estimate estimate(int degree) {
+        int d = Math.max(0, Math.min(degree, maxDegree()));
+        if (d == 0) return new Estimate(0, instructions.size(), sumCyclesOf(instructions));
+
+        Map<String, Cost> costs = bodyCosts();
+        long size = 0, cycles = 0;
+        for (Instruction ins : instructions) {
+            String text = (ins.text == null) ? "" : ins.text;
+            long[] c;
+            Matcher m = RX_QUOTE.matcher(text);
+            Matcher j = RX_JEF.matcher(text);
+            if (m.matches()) {
+                c = callCost(costs, m.group(2), parseArgs(m.group(3)));
+            } else if (j.matches()) {
+                c = callCost(costs, j.group(2), parseArgs(j.group(3)));
+                c = new long[] { sat(c[0], 1), sat(c[1], 2) };
+            } else {
+                c = new long[] { 1, cyclesFor(text) };
+            }
+            size = sat(size, c[0]);
+            cycles = sat(cycles, c[1]);
+        }
+        if (name != null && name.equalsIgnoreCase("divide") && d == 1) {
+            size = sat(size, 1);
+            cycles = sat(cycles, 1);
+        }
+        return new Estimate(d, size, cycles);
+    }
+
+    public List<Estimate> estimates() {
+        List<Estimate> out = new ArrayList<>();
+        for (int d = 0; d <= maxDegree(); d++) out.add(estimate(d));
+        return out;
+    }
+
+    private volatile Map<String, Cost> bodyCosts;
+
+    private Map<String, Cost> bodyCosts() {
+        Map<String, Cost> costs = bodyCosts;
+        if (costs == null) {
+            costs = new HashMap<>();
+            Map<String, Body> b = bodies();
+            for (String fn : calleesFirst) {
+                Body body = b.get(fn);
+                if (body.error != null) {
+                    costs.put(fn, new Cost(0, 0, body.error));
+                    continue;
+                }
+                long size = 1, cycles = 1;
+                try {
+                    for (Step step : body.steps) {
+                        long[] c;
+                        if (step instanceof QuoteStep q) {
+                            c = callCost(costs, q.func, q.args);
+                        } else if (step instanceof JefStep jef) {
+                            c = callCost(costs, jef.func, jef.args);
+                            c = new long[] { sat(c[0], 1), sat(c[1], 2) };
+                        } else {
+                            c = new long[] { 1, ((Line) step).cycles };
+                        }
+                        size = sat(size, c[0]);
+                        cycles = sat(cycles, c[1]);
+                    }
+                    costs.put(fn, new Cost(size, cycles, null));
+                } catch (IllegalStateException ex) {
+                    costs.put(fn, new Cost(0, 0, ex.getMessage()));
+                }
+            }
+            bodyCosts = costs;
+        }
+        return costs;
+    }
+
+    private static final class Cost {
+        final long size, cycles;
+        final String error;
+        Cost(long size, long cycles, String error) { this.size = size; this.cycles = cycles; this.error = error; }
+    }
+
+    private static long[] callCost(Map<String, Cost> costs, String func, List<Arg> args) {
+        Cost body = costs.get(func);
+        if (body == null) throw new IllegalStateException("Unknown function: " + func);
+        if (body.error != null) throw new IllegalStateException(body.error);
+        long size = body.size, cycles = body.cycles;
+        for (Arg a : args) {
+            if (a instanceof CallArg ca) {
+                long[] c = callCost(costs, ca.func, ca.args);
+                size = sat(size, c[0]);
+                cycles = sat(cycles, c[1]);
+            }
+        }
+        return new long[] { size, cycles };
+    }
+
+    private static long sat(long a, long b) {
+        long r = a + b;
+        return (r < a) ? Long.MAX_VALUE : r;
+    }
+
+
     public Rendered expandToDegree(int degree) {
         int d = Math.max(0, Math.min(degree, maxDegree()));
 
-        if (d == 0) {
-            List<List<String>> chains = new ArrayList<>(instructions.size());
-            for (Instruction ins : instructions) chains.add(List.of(renderOriginLine(ins)));
-            return new Rendered(name,
-                    Collections.unmodifiableList(instructions),
-                    Collections.unmodifiableList(chains));
+        if (d > 0) {
+            long size = estimate(d).instructions;
+            if (size > MAX_EXPANDED_INSTRUCTIONS) {
+                throw new IllegalStateException("Expansion of degree " + d + " would produce " + size
+                        + " instructions (limit " + MAX_EXPANDED_INSTRUCTIONS + ")");
+            }
         }
 
+        return cached(renderings, d, k -> {
+            if (k == 0) {
+                List<List<String>> chains = new ArrayList<>(instructions.size());
+                for (Instruction ins : instructions) chains.add(List.of(renderOriginLine(ins)));
+                return new Rendered(name,
+                        Collections.unmodifiableList(instructions),
+                        Collections.unmodifiableList(chains));
+            }
+            Rendered r = render(k, false);
+            return new Rendered(r.name, Collections.unmodifiableList(r.list),
+                    Collections.unmodifiableList(r.originChains));
+        });
+    }
+
+    /**
+     * Display renderings per degree; read-only and shared by every caller, including debug sessions.
+     * A rendering can run to a million instructions, so the cache only holds them softly: degrees in
+     * use stay, the others go when memory runs short and are rendered again if asked for.
+     */
+    private final Map<Integer, SoftReference<Rendered>> renderings = new java.util.concurrent.ConcurrentHashMap<>();
+
+    /**
+     * Execution-only rendering: functions quoted from more than one site are emitted once, after
+     * the main program, and reached through zero-cycle CALL/RET and transfers. Each site keeps its
+     * own copy of the body's locals, as an inlined copy would, so runs of it produce the same y and
+     * cycle count as {@link #expandToDegree}, which remains the display view.
+     */
+    public Rendered executable(int degree) {
+        int d = Math.max(0, Math.min(degree, maxDegree()));
+        if (d == 0) return expandToDegree(0);
+        return cached(executables, d, k -> render(k, true));
+    }
+
+    private final Map<Integer, SoftReference<Rendered>> executables = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private static Rendered cached(Map<Integer, SoftReference<Rendered>> cache, int degree, IntFunction<Rendered> make) {
+        SoftReference<Rendered> ref = cache.get(degree);
+        Rendered r = (ref == null) ? null : ref.get();
+        if (r != null) return r;
+
+        Rendered[] out = new Rendered[1];
+        cache.compute(degree, (k, old) -> {
+            out[0] = (old == null) ? null : old.get();
+            if (out[0] != null) return old;
+            out[0] = make.apply(k);
+            return new SoftReference<>(out[0]);
+        });
+        return out[0];
+    }
+
+    private Rendered render(int d, boolean shared) {
         List<Instruction> out = new ArrayList<>();
         List<List<String>> chains = new ArrayList<>();
 
-        Scratch scratch = new Scratch();
+        Scratch scratch = newScratch();
+        shared &= scratch.zCounter < MACHINE_Z;
+        if (shared) scratch.subs = new LinkedHashMap<>();
 
         for (Instruction ins : instructions) {
             List<Instruction> expanded = tryExpandKnownSynthetic(ins, scratch);
@@ -100,9 +383,20 @@ public final class Program {
         }
         // -------------------------------------------------------------------------------
 
+        if (shared) {
+            out.add(new Instruction.SubReturn(null));
+            chains.add(List.of());
+            for (Sub sub : scratch.subOrder) {
+                out.addAll(sub.code);
+                List<String> chain = List.of("[shared] " + sub.func);
+                for (int k = 0; k < sub.code.size(); k++) chains.add(chain);
+            }
+        }
+
         return new Rendered(name,
                 Collections.unmodifiableList(out),
-                Collections.unmodifiableList(chains));
+                Collections.unmodifiableList(chains),
+                shared ? MACHINE_Z : Integer.MAX_VALUE);
     }
 
 
@@ -126,6 +420,7 @@ public final class Program {
 
 
     private static Instruction withLabel(Instruction src, String newLabel) {
+        if (src instanceof Instruction.Transfer t) return new Instruction.Transfer(newLabel, t.dst, t.src);
         String txt = (src == null) ? "" : src.text;
 
         return Instruction.parseFromText(newLabel, txt, "B", cyclesFor(txt));
@@ -175,157 +470,470 @@ public final class Program {
 
 
     private List<Instruction> expandJumpEqualFunction(String var, String func, String argsStr, String label, Scratch scratch) {
+        return expandJumpEqualFunction(VariableRef.parse(var), func, parseArgs(argsStr), label, scratch);
+    }
+
+    private List<Instruction> expandJumpEqualFunction(VariableRef var, String func, List<Arg> args, String label, Scratch scratch) {
         List<Instruction> out = new ArrayList<>();
 
-        VariableRef tmp = VariableRef.parse("z" + scratch.nextZ());
-        evalFuncInto(tmp, func, parseArgs(argsStr), out, scratch);
+        VariableRef tmp = VariableRef.of(VariableRef.Kind.Z, scratch.nextZ());
+        evalFuncInto(tmp, func, args, out, scratch);
 
-        String line = "IF " + var + " == " + tmp.name() + " GOTO " + label;
-        out.add(Instruction.parseFromText(null, line, "B", cyclesFor(line)));
+        String line = "IF " + var.name() + " == " + tmp.name() + " GOTO " + label;
+        scratch.emit(out, Instruction.parseFromText(null, line, "B", cyclesFor(line)));
 
         return out;
     }
 
+    /**
+     * Inlines one function call. Nested calls are pushed on an explicit stack rather than the
+     * Java stack, so the nesting depth is only limited by the (acyclic) call graph.
+     */
     private void evalFuncInto(VariableRef target, String funcName, List<Arg> args,
                               List<Instruction> out, Scratch scratch) {
 
-        List<Instruction> body = functions.get(funcName);
+        runFrames(newFrame(target, funcName, args, scratch), out, scratch);
+    }
+
+    private void runFrames(Frame root, List<Instruction> out, Scratch scratch) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            Frame f = stack.peek();
+
+            if (f.pendingLine != null) {
+                scratch.emit(out, Instruction.parseFromText(null, f.pendingLine, "B", cyclesFor(f.pendingLine)));
+                f.pendingLine = null;
+            }
+
+            if (f.argIdx < f.args.size()) {
+                Arg a = f.args.get(f.argIdx++);
+                VariableRef formal = VariableRef.of(VariableRef.Kind.X, f.argIdx);
+                if (a instanceof VarArg va) {
+                    f.call.vars.put(formal, va.v);
+                } else if (a instanceof CallArg ca) {
+                    VariableRef tmp = VariableRef.of(VariableRef.Kind.Z, scratch.nextZ());
+                    f.call.vars.put(formal, tmp);
+                    stack.push(newFrame(tmp, ca.func, ca.args, scratch));
+                }
+                continue;
+            }
+
+            if (f.sub != null) {
+                emitSharedCall(f, out, scratch);
+                stack.pop();
+                continue;
+            }
+
+            if (f.stepIdx < f.body.steps.size()) {
+                Step step = f.body.steps.get(f.stepIdx++);
+                Call call = f.call;
+
+                if (step instanceof QuoteStep q) {
+                    VariableRef dst = call.var(q.dst);
+                    stack.push(newFrame(dst, q.func, call.args(q.args), scratch));
+                } else if (step instanceof JefStep j) {
+                    VariableRef v = call.var(j.var);
+                    List<Arg> inner = call.args(j.args);
+                    String tgt = labelName(call.label(j.target));
+                    VariableRef tmp = VariableRef.of(VariableRef.Kind.Z, scratch.nextZ());
+                    f.pendingLine = "IF " + v.name() + " == " + tmp.name() + " GOTO " + tgt;
+                    stack.push(newFrame(tmp, j.func, inner, scratch));
+                } else {
+                    Line line = (Line) step;
+                    String newLabel = (line.label == NO_LABEL) ? line.rawLabel : labelName(call.label(line.label));
+                    String cmdText = call.render(line.parts);
+                    scratch.emit(out, Instruction.parseFromText(newLabel, cmdText, "B", cyclesFor(cmdText)));
+                }
+                continue;
+            }
+
+            String localExit = labelName(f.call.label(EXIT_LABEL));
+            scratch.emit(out, Instruction.parseFromText(localExit, f.target.name() + " <- " + f.target.name(), "B", 1));
+            stack.pop();
+        }
+    }
+
+    private Frame newFrame(VariableRef target, String funcName, List<Arg> args, Scratch scratch) {
+        Body body = bodies().get(funcName);
         if (body == null) {
             throw new IllegalStateException("Unknown function: " + funcName);
         }
+        if (body.error != null) {
+            throw new IllegalStateException(body.error);
+        }
+        Frame f = new Frame(target, body, args, new Call(scratch));
+        if (scratch.subs != null && callSites().getOrDefault(funcName, 0) > 1 && !aliased(target, args, body.maxX)) {
+            f.sub = scratch.subs.get(funcName);
+            if (f.sub == null) {
+                f.sub = new Sub(funcName, body, scratch);
+                scratch.subs.put(funcName, f.sub);
+                scratch.subOrder.add(f.sub);
+                emitSubroutine(f.sub, scratch);
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Shared bodies take their arguments by copy-in/copy-out, which only matches inlining when the
+     * target and the variables bound to x1..xN are pairwise distinct; other sites are inlined.
+     */
+    private static boolean aliased(VariableRef target, List<Arg> args, int maxX) {
+        Set<VariableRef> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(target);
+        for (int i = 1; i <= maxX; i++) {
+            Arg a = (i <= args.size()) ? args.get(i - 1) : null;
+            if (a instanceof CallArg) continue;
+            VariableRef v = (a instanceof VarArg va) ? va.v : VariableRef.of(VariableRef.Kind.X, i);
+            if (!seen.add(v)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Calls a shared body. The site owns a copy of every variable the body keeps between calls,
+     * swapped in before the CALL and out after it, so a site run again (in a loop) sees the values
+     * it left behind, exactly like an inlined copy; the first run of each site sees zeros. The copies
+     * are allocated in the order the inlined copy allocates its temporaries, so they get its names.
+     */
+    private void emitSharedCall(Frame f, List<Instruction> out, Scratch scratch) {
+        Sub sub = f.sub;
+        VariableRef[] own = new VariableRef[sub.state.length];
+        for (int i = 0; i < own.length; i++) own[i] = VariableRef.of(VariableRef.Kind.Z, scratch.nextZ());
+
+        List<VariableRef> actuals = new ArrayList<>(sub.params.length);
+        scratch.emit(out, new Instruction.Transfer(null, sub.y, f.target));
+        for (int i = 0; i < sub.params.length; i++) {
+            VariableRef formal = VariableRef.of(VariableRef.Kind.X, i + 1);
+            VariableRef actual = f.call.vars.getOrDefault(formal, formal);
+            actuals.add(actual);
+            scratch.emit(out, new Instruction.Transfer(null, sub.params[i], actual));
+        }
+        for (int i = 0; i < own.length; i++) scratch.emit(out, new Instruction.Transfer(null, sub.state[i], own[i]));
+        scratch.emit(out, new Instruction.SubCall(null, labelName(sub.entry)));
+        for (int i = 0; i < own.length; i++) scratch.emit(out, new Instruction.Transfer(null, own[i], sub.state[i]));
+        for (int i = 0; i < sub.params.length; i++) {
+            scratch.emit(out, new Instruction.Transfer(null, actuals.get(i), sub.params[i]));
+        }
+        scratch.emit(out, new Instruction.Transfer(null, f.target, sub.y));
+    }
+
+    /**
+     * Renders a shared body into {@code sub.code} as soon as the body is first called, so its sites
+     * know which variables it keeps between calls: the temporaries it allocates itself, in order.
+     * Those of bodies it calls in turn are allocated while rendering them and are not included.
+     */
+    private void emitSubroutine(Sub sub, Scratch scratch) {
+        Frame f = new Frame(sub.y, sub.body, List.of(), new Call(scratch));
+        for (int i = 0; i < sub.params.length; i++) {
+            f.call.vars.put(VariableRef.of(VariableRef.Kind.X, i + 1), sub.params[i]);
+        }
+
+        List<VariableRef> outer = scratch.machineLog;
+        List<VariableRef> state = new ArrayList<>();
+        scratch.machineLog = state;
+        try {
+            List<Instruction> code = new ArrayList<>();
+            scratch.emit(code, new Instruction.Transfer(labelName(sub.entry), sub.y, sub.y));
+            runFrames(f, code, scratch);
+            scratch.emit(code, new Instruction.SubReturn(null));
+            sub.code = code;
+        } finally {
+            scratch.machineLog = outer;
+        }
+        sub.state = state.toArray(new VariableRef[0]);
+    }
+
+    private static final class Sub {
+        final String func;
+        final Body body;
+        final int entry;
+        final VariableRef y;
+        final VariableRef[] params;
+        List<Instruction> code = List.of();
+        VariableRef[] state = new VariableRef[0];
+
+        Sub(String func, Body body, Scratch scratch) {
+            this.func = func;
+            this.body = body;
+            this.entry = scratch.nextLabel();
+            this.y = VariableRef.of(VariableRef.Kind.Z, scratch.nextMachineZ());
+            this.params = new VariableRef[body.maxX];
+            for (int i = 0; i < params.length; i++) params[i] = VariableRef.of(VariableRef.Kind.Z, scratch.nextMachineZ());
+        }
+    }
 
-        Map<String, String> varMap = new HashMap<>();
-        varMap.put("y", target.name());
+    private volatile Map<String, Integer> callSites;
+
+    /** Number of QUOTE / JUMP_EQUAL_FUNCTION / nested-argument sites naming each function. */
+    private Map<String, Integer> callSites() {
+        Map<String, Integer> sites = callSites;
+        if (sites == null) {
+            sites = new HashMap<>();
+            for (Instruction ins : instructions) {
+                String text = (ins.text == null) ? "" : ins.text;
+                Matcher m = RX_QUOTE.matcher(text);
+                Matcher j = RX_JEF.matcher(text);
+                if (m.matches()) countSites(m.group(2), parseArgs(m.group(3)), sites);
+                else if (j.matches()) countSites(j.group(2), parseArgs(j.group(3)), sites);
+            }
+            for (Body body : bodies().values()) {
+                for (Step step : body.steps) {
+                    if (step instanceof QuoteStep q) countSites(q.func, q.args, sites);
+                    else if (step instanceof JefStep jef) countSites(jef.func, jef.args, sites);
+                }
+            }
+            callSites = sites;
+        }
+        return sites;
+    }
 
-        int idx = 1;
+    private static void countSites(String func, List<Arg> args, Map<String, Integer> sites) {
+        sites.merge(func, 1, Integer::sum);
         for (Arg a : args) {
-            String formal = "x" + idx++;
-            if (a instanceof VarArg va) {
-                varMap.put(formal, va.v.name());
-            } else if (a instanceof CallArg ca) {
-                VariableRef tmp = VariableRef.parse("z" + scratch.nextZ());
-                evalFuncInto(tmp, ca.func, ca.args, out, scratch);
-                varMap.put(formal, tmp.name());
+            if (a instanceof CallArg ca) countSites(ca.func, ca.args, sites);
+        }
+    }
+
+    private static final class Frame {
+        final VariableRef target;
+        final Body body;
+        final List<Arg> args;
+        final Call call;
+        int argIdx = 0;
+        int stepIdx = 0;
+        String pendingLine;
+        Sub sub;
+
+        Frame(VariableRef target, Body body, List<Arg> args, Call call) {
+            this.target = target;
+            this.body = body;
+            this.args = args;
+            this.call = call;
+            call.vars.put(VariableRef.y(), target);
+        }
+    }
+
+
+    /*
+     * Function bodies are compiled once into steps whose variables are VariableRefs and whose
+     * labels are ints; a call then only remaps those tokens instead of regex-rewriting text.
+     */
+    private static final int NO_LABEL   = -2;
+    private static final int EXIT_LABEL = -1;
+
+    private static int labelId(String s) {
+        if (s == null) return NO_LABEL;
+        String t = s.trim();
+        if (t.equalsIgnoreCase("EXIT")) return EXIT_LABEL;
+        if (t.length() < 2 || (t.charAt(0) != 'L' && t.charAt(0) != 'l')) return NO_LABEL;
+        int n = digitsValue(t, 1);
+        return n < 0 ? NO_LABEL : n;
+    }
+
+    private static String labelName(int id) {
+        return id == EXIT_LABEL ? "EXIT" : "L" + id;
+    }
+
+    private static int digitsValue(String s, int from) {
+        if (from >= s.length()) return -1;
+        long v = 0;
+        for (int i = from; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+            if (v > Integer.MAX_VALUE) return -1;
+        }
+        return (int) v;
+    }
+
+    private static final class Body {
+        final List<Step> steps;
+        final String error;
+        final int maxX;
+        final List<VariableRef> locals;
+        Body(List<Step> steps, String error) {
+            this.steps = steps;
+            this.error = error;
+
+            int mx = 0;
+            Set<VariableRef> zs = new LinkedHashSet<>();
+            List<VariableRef> refs = new ArrayList<>();
+            for (Step st : steps) {
+                if (st instanceof Line l) {
+                    for (Object p : l.parts) if (p instanceof VariableRef v) refs.add(v);
+                } else if (st instanceof QuoteStep q) {
+                    refs.add(q.dst);
+                    collectVars(q.args, refs);
+                } else if (st instanceof JefStep j) {
+                    refs.add(j.var);
+                    collectVars(j.args, refs);
+                }
+            }
+            for (VariableRef v : refs) {
+                if (v.kind() == VariableRef.Kind.X) mx = Math.max(mx, v.index());
+                else if (v.kind() == VariableRef.Kind.Z) zs.add(v);
             }
+            this.maxX = mx;
+            this.locals = List.copyOf(zs);
         }
 
-        Map<String,String> zMap     = new HashMap<>();
-        Map<String,String> labelMap = new HashMap<>();
-        int labelBase = scratch.nextLabelBase();
+        private static void collectVars(List<Arg> args, List<VariableRef> out) {
+            for (Arg a : args) {
+                if (a instanceof VarArg va) out.add(va.v);
+                else if (a instanceof CallArg ca) collectVars(ca.args, out);
+            }
+        }
+    }
 
-        for (Instruction fi : body) {
-            String newLabel = null;
-            if (fi.label != null && !fi.label.isBlank()) {
-                newLabel = remapLabel(fi.label, labelBase, labelMap);
+    private sealed interface Step permits Line, QuoteStep, JefStep {}
+    private static final class Line implements Step {
+        final int label;
+        final String rawLabel;
+        final Object[] parts;
+        final int cycles;
+        Line(int label, String rawLabel, Object[] parts, int cycles) {
+            this.label = label; this.rawLabel = rawLabel; this.parts = parts; this.cycles = cycles;
+        }
+    }
+    private static final class QuoteStep implements Step {
+        final VariableRef dst;
+        final String func;
+        final List<Arg> args;
+        QuoteStep(VariableRef dst, String func, List<Arg> args) { this.dst = dst; this.func = func; this.args = args; }
+    }
+    private static final class JefStep implements Step {
+        final VariableRef var;
+        final String func;
+        final List<Arg> args;
+        final int target;
+        JefStep(VariableRef var, String func, List<Arg> args, int target) {
+            this.var = var; this.func = func; this.args = args; this.target = target;
+        }
+    }
+
+    private volatile Map<String, Body> bodies;
+
+    private Map<String, Body> bodies() {
+        Map<String, Body> b = bodies;
+        if (b == null) {
+            b = new HashMap<>();
+            for (Map.Entry<String, List<Instruction>> e : functions.entrySet()) {
+                try {
+                    b.put(e.getKey(), compileBody(e.getValue()));
+                } catch (RuntimeException ex) {
+                    b.put(e.getKey(), new Body(List.of(), "Function " + e.getKey() + ": " + ex.getMessage()));
+                }
             }
+            bodies = b;
+        }
+        return b;
+    }
 
+    private Body compileBody(List<Instruction> body) {
+        List<Step> steps = new ArrayList<>(body.size());
+        for (Instruction fi : body) {
             String cmdText = (fi.text == null) ? "" : fi.text;
-            cmdText = substituteVariables(cmdText, varMap, zMap, scratch);
-            cmdText = substituteLabelsInText(cmdText, labelBase, labelMap);
 
             Matcher mq = RX_QUOTE.matcher(cmdText);
             if (mq.matches()) {
-                String dst     = mq.group(1);
-                String innerFn = mq.group(2);
-                String inner   = mq.group(3);
-                evalFuncInto(VariableRef.parse(dst), innerFn, parseArgs(inner), out, scratch);
+                steps.add(new QuoteStep(VariableRef.parse(mq.group(1)), mq.group(2), parseArgs(mq.group(3))));
                 continue;
             }
 
             Matcher mj = RX_JEF.matcher(cmdText);
             if (mj.matches()) {
-                String v       = mj.group(1);
-                String innerFn = mj.group(2);
-                String inner   = mj.group(3);
-                String tgt     = mj.group(4);
-                List<Instruction> blk = expandJumpEqualFunction(v, innerFn, inner, tgt, scratch);
-                if (!blk.isEmpty()) {
-                    Instruction tail = blk.get(blk.size() - 1);
-                    String remapped = substituteLabelsInText(tail.text, labelBase, labelMap);
-                    blk.set(blk.size() - 1, Instruction.parseFromText(tail.label, remapped, "B", cyclesFor(remapped)));
-                }
-                out.addAll(blk);
+                int target = labelId(mj.group(4));
+                if (target == NO_LABEL) throw new IllegalStateException("Bad label: " + mj.group(4));
+                steps.add(new JefStep(VariableRef.parse(mj.group(1)), mj.group(2), parseArgs(mj.group(3)), target));
                 continue;
             }
 
-            out.add(Instruction.parseFromText(newLabel, cmdText, "B", cyclesFor(cmdText)));
+            String rawLabel = (fi.label == null || fi.label.isBlank()) ? null : fi.label;
+            steps.add(new Line(labelId(rawLabel), rawLabel, compileLine(cmdText), cyclesFor(cmdText)));
         }
-
-        String localExit = "L" + (labelBase + 99);
-        out.add(Instruction.parseFromText(localExit, target.name() + " <- " + target.name(), "B", 1));
+        return new Body(steps, null);
     }
 
-    private static String substituteVariables(String text,
-                                              Map<String,String> varMap,
-                                              Map<String,String> zMap,
-                                              Scratch scratch) {
-        if (text == null || text.isBlank()) return text;
-
 
-        Pattern pZ = Pattern.compile("\\bz(\\d+)\\b");
-        Matcher mZ = pZ.matcher(text);
-        StringBuffer sbZ = new StringBuffer();
-        while (mZ.find()) {
-            String old = "z" + mZ.group(1);
-            String rep = zMap.computeIfAbsent(old, k -> "z" + scratch.nextZ());
-            mZ.appendReplacement(sbZ, Matcher.quoteReplacement(rep));
+    private static Object[] compileLine(String text) {
+        List<Object> parts = new ArrayList<>();
+        StringBuilder lit = new StringBuilder();
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (!isWordChar(c)) { lit.append(c); i++; continue; }
+
+            int j = i;
+            while (j < n && isWordChar(text.charAt(j))) j++;
+            String word = text.substring(i, j);
+            i = j;
+
+            Object tok = wordToken(word);
+            if (tok == null) { lit.append(word); continue; }
+            if (lit.length() > 0) { parts.add(lit.toString()); lit.setLength(0); }
+            parts.add(tok);
         }
-        mZ.appendTail(sbZ);
-        String afterZ = sbZ.toString();
-
+        if (lit.length() > 0) parts.add(lit.toString());
+        return parts.toArray();
+    }
 
-        Pattern pXY = Pattern.compile("\\b(y|x\\d+)\\b");
-        Matcher mXY = pXY.matcher(afterZ);
-        StringBuffer sb = new StringBuffer();
-        while (mXY.find()) {
-            String tok = mXY.group(1);
-            String rep = varMap.get(tok);
-            if (rep == null) rep = tok;
-            mXY.appendReplacement(sb, Matcher.quoteReplacement(rep));
+    private static Object wordToken(String w) {
+        if (w.equals("y")) return VariableRef.y();
+        char c = w.charAt(0);
+        if (c == 'x' || c == 'z') {
+            int n = digitsValue(w, 1);
+            if (n >= 0) return VariableRef.of(c == 'x' ? VariableRef.Kind.X : VariableRef.Kind.Z, n);
+            return null;
         }
-        mXY.appendTail(sb);
+        int label = labelId(w);
+        return label == NO_LABEL ? null : Integer.valueOf(label);
+    }
 
-        return sb.toString();
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
     }
 
 
-    private static String substituteLabelsInText(String text, int labelBase, Map<String,String> labelMap) {
-        if (text == null || text.isBlank()) return text;
+    private static final class Call {
+        final Scratch scratch;
+        final Map<VariableRef, VariableRef> vars = new IdentityHashMap<>();
+        final Map<Integer, Integer> labels = new HashMap<>();
 
-        Pattern p = Pattern.compile("L(\\d+)");
-        Matcher m = p.matcher(text);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            String old = "L" + m.group(1);
-            String repl = remapLabel(old, labelBase, labelMap);
-            m.appendReplacement(sb, Matcher.quoteReplacement(repl));
-        }
-        m.appendTail(sb);
+        Call(Scratch scratch) { this.scratch = scratch; }
 
-        Pattern p2 = Pattern.compile("\\bEXIT\\b", Pattern.CASE_INSENSITIVE);
-        Matcher m2 = p2.matcher(sb.toString());
-        StringBuffer sb2 = new StringBuffer();
-        while (m2.find()) {
-            String repl = remapLabel("EXIT", labelBase, labelMap);
-            m2.appendReplacement(sb2, Matcher.quoteReplacement(repl));
+        VariableRef var(VariableRef v) {
+            if (v.kind() == VariableRef.Kind.Z) {
+                return vars.computeIfAbsent(v, k -> VariableRef.of(VariableRef.Kind.Z, scratch.nextZ()));
+            }
+            return vars.getOrDefault(v, v);
         }
-        m2.appendTail(sb2);
-
-        return sb2.toString();
-    }
 
-    private static String remapLabel(String old, int base, Map<String,String> map) {
-        if (old == null) return null;
-        String key = old.toUpperCase(Locale.ROOT);
-
-        if (key.equals("EXIT")) return "L" + (base + 99);
+        int label(int id) {
+            return labels.computeIfAbsent(id, k -> scratch.nextLabel());
+        }
 
-        if (!key.matches("L\\d+")) return old;
+        List<Arg> args(List<Arg> args) {
+            List<Arg> out = new ArrayList<>(args.size());
+            for (Arg a : args) {
+                if (a instanceof VarArg va) out.add(new VarArg(var(va.v)));
+                else if (a instanceof CallArg ca) out.add(new CallArg(ca.func, args(ca.args)));
+            }
+            return out;
+        }
 
-        return map.computeIfAbsent(key, k -> {
-            int n = Integer.parseInt(k.substring(1));
-            return "L" + (base + n);
-        });
+        String render(Object[] parts) {
+            StringBuilder sb = new StringBuilder();
+            for (Object p : parts) {
+                if (p instanceof String s) sb.append(s);
+                else if (p instanceof VariableRef v) sb.append(var(v).name());
+                else sb.append(labelName(label((Integer) p)));
+            }
+            return sb.toString();
+        }
     }
 
     private sealed interface Arg permits VarArg, CallArg {}
@@ -420,16 +1028,50 @@ public final class Program {
 
 
     private static final class Scratch {
-        private int zCounter = 1;
-        private int nextLabelBase = 1000;
+        private int zCounter;
+        private int machineZ = MACHINE_Z;
+        private int labelCounter;
+        private int emitted;
+        Map<String, Sub> subs;
+        final List<Sub> subOrder = new ArrayList<>();
+        /** Set while a shared body renders; its temporaries are machine z's, logged here in order. */
+        List<VariableRef> machineLog;
+
+        Scratch(int firstZ, int firstLabel) {
+            this.zCounter = firstZ;
+            this.labelCounter = firstLabel;
+        }
+
+        int nextZ() {
+            if (machineLog == null) return zCounter++;
+            int z = machineZ++;
+            machineLog.add(VariableRef.of(VariableRef.Kind.Z, z));
+            return z;
+        }
+
+        int nextMachineZ() { return machineZ++; }
 
-        int nextZ() { return zCounter++; }
+        int nextLabel() { return labelCounter++; }
 
-        int nextLabelBase() {
-            int base = nextLabelBase;
-            nextLabelBase += 1000;
-            return base;
+        void emit(List<Instruction> out, Instruction ins) {
+            if (++emitted > MAX_EXPANDED_INSTRUCTIONS) {
+                throw new IllegalStateException("Expansion exceeds " + MAX_EXPANDED_INSTRUCTIONS + " instructions");
+            }
+            out.add(ins);
+        }
+    }
+
+    /** Fresh temporaries and labels start above anything the main program already uses. */
+    private Scratch newScratch() {
+        int maxZ = 0, maxLabel = 0;
+        for (Instruction ins : instructions) {
+            maxLabel = Math.max(maxLabel, labelId(ins.label));
+            for (Object tok : compileLine(ins.text == null ? "" : ins.text)) {
+                if (tok instanceof VariableRef v && v.kind() == VariableRef.Kind.Z) maxZ = Math.max(maxZ, v.index());
+                else if (tok instanceof Integer l) maxLabel = Math.max(maxLabel, l);
+            }
         }
+        return new Scratch(maxZ + 1, maxLabel + 1);
     }
 
     private static List<String> toLines(List<Instruction> list) {
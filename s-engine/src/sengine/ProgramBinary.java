@@ -0,0 +1,216 @@
+package sengine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary form of a {@link Program}, for reloading without going through XML.
+ *
+ * <pre>
+ * "SEMP" u16 version
+ * strings:  varint count, then per string varint length + UTF-8 bytes
+ * program:  name, instructions, varint function count, then per function name + instructions
+ * instructions: varint count, then per instruction
+ *               label, text, u8 basic, varint declaredCycles + 1
+ * </pre>
+ *
+ * Labels and texts repeat a lot, so every string is written once and referred to by index. A
+ * reference is the string index + 1, with 0 for a null string (an unnamed program, no label).
+ * Instructions are rebuilt through {@link Instruction#parseFromText}, which yields the same
+ * subclasses the XML parser produced.
+ */
+public final class ProgramBinary {
+
+    private ProgramBinary() {}
+
+    static final int MAGIC = 0x53454D50; // "SEMP"
+    static final int VERSION = 1;
+
+    public static boolean isBinary(byte[] head) {
+        return head.length >= 4 && ByteBuffer.wrap(head, 0, 4).getInt() == MAGIC;
+    }
+
+    public static byte[] toBytes(Program p) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(p, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static void write(Program p, OutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        intern(strings, p.name);
+        collect(strings, p.instructions);
+        for (Map.Entry<String, List<Instruction>> e : p.functions.entrySet()) {
+            intern(strings, e.getKey());
+            collect(strings, e.getValue());
+        }
+
+        Sink s = new Sink();
+        s.u32(MAGIC);
+        s.u16(VERSION);
+        s.varint(strings.size());
+        for (String str : strings.keySet()) {
+            byte[] b = str.getBytes(StandardCharsets.UTF_8);
+            s.varint(b.length);
+            s.bytes(b);
+        }
+        s.varint(ref(strings, p.name));
+        writeInstructions(s, strings, p.instructions);
+        s.varint(p.functions.size());
+        for (Map.Entry<String, List<Instruction>> e : p.functions.entrySet()) {
+            s.varint(ref(strings, e.getKey()));
+            writeInstructions(s, strings, e.getValue());
+        }
+        s.writeTo(out);
+    }
+
+    /** Reads a program from {@code buf}'s position; works on heap and memory-mapped buffers alike. */
+    public static Program read(ByteBuffer buf) {
+        try {
+            if (buf.remaining() < 6 || buf.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a binary program file");
+            }
+            int version = buf.getShort() & 0xFFFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary program version: " + version);
+            }
+
+            String[] strings = new String[count(buf)];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] b = new byte[count(buf)];
+                buf.get(b);
+                strings[i] = new String(b, StandardCharsets.UTF_8);
+            }
+
+            String name = string(strings, varint(buf));
+            List<Instruction> main = readInstructions(buf, strings);
+            int fnCount = count(buf);
+            Map<String, List<Instruction>> functions = new LinkedHashMap<>();
+            for (int i = 0; i < fnCount; i++) {
+                String fn = string(strings, varint(buf));
+                functions.put(fn, List.copyOf(readInstructions(buf, strings)));
+            }
+            return new Program(name, main, functions);
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Truncated binary program file", ex);
+        }
+    }
+
+    private static void intern(Map<String, Integer> strings, String s) {
+        if (s != null) strings.putIfAbsent(s, strings.size());
+    }
+
+    private static int ref(Map<String, Integer> strings, String s) {
+        return (s == null) ? 0 : strings.get(s) + 1;
+    }
+
+    private static void collect(Map<String, Integer> strings, List<Instruction> list) {
+        for (Instruction ins : list) {
+            intern(strings, ins.label);
+            intern(strings, ins.text);
+        }
+    }
+
+    private static void writeInstructions(Sink s, Map<String, Integer> strings, List<Instruction> list) {
+        s.varint(list.size());
+        for (Instruction ins : list) {
+            s.varint(ref(strings, ins.label));
+            s.varint(ref(strings, ins.text));
+            s.u8(ins.basic ? 1 : 0);
+            s.varint(ins.declaredCycles + 1);
+        }
+    }
+
+    private static List<Instruction> readInstructions(ByteBuffer buf, String[] strings) {
+        int n = count(buf);
+        List<Instruction> list = new ArrayList<>(Math.min(n, buf.remaining()));
+        for (int i = 0; i < n; i++) {
+            String label = string(strings, varint(buf));
+            String text = string(strings, varint(buf));
+            boolean basic = buf.get() != 0;
+            int declared = varint(buf) - 1;
+            if (text == null) {
+                // nothing to parse; keep the instruction as it was written
+                list.add(basic ? new Instruction.OpaqueBasic(label, null, declared)
+                               : new Instruction.OpaqueSynthetic(label, null, declared));
+            } else {
+                list.add(Instruction.parseFromText(label, text, basic ? "B" : "S", declared < 0 ? null : declared));
+            }
+        }
+        return list;
+    }
+
+    private static String string(String[] strings, int ref) {
+        if (ref == 0) return null;
+        if (ref < 0 || ref > strings.length) throw new IllegalArgumentException("Bad string index: " + ref);
+        return strings[ref - 1];
+    }
+
+    /** A varint used as an element count; bounded by what is left so a corrupt file cannot over-allocate. */
+    private static int count(ByteBuffer buf) {
+        int n = varint(buf);
+        if (n < 0 || n > buf.remaining()) throw new IllegalArgumentException("Corrupt binary program file");
+        return n;
+    }
+
+    private static int varint(ByteBuffer buf) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IllegalArgumentException("Corrupt binary program file");
+    }
+
+    private static final class Sink {
+        private byte[] buf = new byte[256];
+        private int len;
+
+        void u8(int v) {
+            ensure(1);
+            buf[len++] = (byte) v;
+        }
+
+        void u16(int v) {
+            u8(v >>> 8);
+            u8(v);
+        }
+
+        void u32(int v) {
+            u16(v >>> 16);
+            u16(v);
+        }
+
+        void varint(int v) {
+            while ((v & ~0x7F) != 0) {
+                u8((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            u8(v);
+        }
+
+        void bytes(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buf, 0, len);
+        }
+
+        private void ensure(int n) {
+            if (len + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+        }
+    }
+}
@@ -1,367 +1,414 @@
 package sengine;
 
-import org.w3c.dom.*;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.XMLConstants;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Reads programs with a StAX cursor. Each instruction element is collected into a small {@link Raw}
+ * record and turned into an {@link Instruction} as soon as it closes, so no document tree is built.
+ */
 public final class ProgramParser {
 
     private ProgramParser() {}
 
+    private static final XMLInputFactory XML_INPUT = newInputFactory();
+    private static final Map<String, Schema> SCHEMAS = new ConcurrentHashMap<>();
 
+    private static final List<String> BUILTIN_FUNCTIONS = List.of(
+            "CONST", "NOT", "EQUAL", "AND", "OR",
+            "Smaller_Than", "Bigger_Equal_Than", "Smaller_Equal_Than",
+            "Minus", "Successor"
+    );
 
-    public static Program parseFromXml(File file) {
-        try {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
-            Element root = doc.getDocumentElement();
-            root.normalize();
-
-            if (eq(root.getTagName(), "program")) {
-                return parseSimple(root);
-            } else if (eq(root.getTagName(), "S-Program")) {
-                return parseCourse(root);
-            } else {
-                throw new IllegalArgumentException("Unknown root: " + root.getTagName());
-            }
-        } catch (Exception ex) {
-            throw new IllegalArgumentException("Failed to load: " + ex.getMessage(), ex);
-        }
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return f;
     }
 
 
-    public static void validateWithXsd(File xml, File xsd) throws Exception {
-        SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        Schema schema = sf.newSchema(xsd);
-        Validator validator = schema.newValidator();
-        validator.validate(new javax.xml.transform.stream.StreamSource(xml));
+    public static Program parseFromXml(File file) {
+        return parseFromXml(file, (Schema) null);
     }
 
+    /** Parses and validates against {@code xsd} in the same pass. */
+    public static Program parseFromXml(File file, File xsd) {
+        return parseFromXml(file, schema(xsd));
+    }
 
-    private static Program parseSimple(Element root) {
-        String name = attrOr(root, "name", "Unnamed");
-        Element instrWrap = firstChild(root, "instructions");
-        if (instrWrap == null) throw new IllegalArgumentException("Missing <instructions>");
-
-        List<Instruction> list = new ArrayList<>();
-        for (Element e : children(instrWrap, "instruction")) {
-            String type = attrOr(e, "type", "B");
-            String label = textOfOptional(e, "label");
-            String command = textOfRequired(e, "command");
-            Integer cycles = parseIntOrNull(textOfOptional(e, "cycles"));
-            list.add(Instruction.parseFromText(label, command, type, cycles == null ? 1 : cycles));
+    public static Program parseFromXml(File file, Schema schema) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            String systemId = file.toURI().toString();
+            return load(f -> f.createXMLStreamReader(systemId, in), schema);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Failed to load: " + ex.getMessage(), ex);
         }
-        return new Program(name, list);
     }
 
+    /** Reads a program from a stream; the XML declaration decides the encoding. The stream is not closed. */
+    public static Program parseFromXml(InputStream in) {
+        return parseFromXml(in, null);
+    }
 
-    private static Program parseCourse(Element root) {
-        String name = attrOr(root, "name", "Unnamed");
-
-        Element sInstrWrap = firstChild(root, "S-Instructions");
-        if (sInstrWrap == null) throw new IllegalArgumentException("Missing <S-Instructions>");
+    public static Program parseFromXml(InputStream in, Schema schema) {
+        return load(f -> f.createXMLStreamReader(in), schema);
+    }
 
-        Set<String> definedFnNames = collectFunctionNames(root);
-        definedFnNames.addAll(Arrays.asList(
-                "CONST", "NOT", "EQUAL", "AND", "OR",
-                "Smaller_Than", "Bigger_Equal_Than", "Smaller_Equal_Than",
-                "Minus", "Successor"
-        ));
+    public static Program parseFromXml(byte[] xml) {
+        return parseFromXml(new ByteArrayInputStream(xml));
+    }
 
+    /** Reads a program from already-decoded characters. The reader is not closed. */
+    public static Program parseFromXml(Reader reader) {
+        return parseFromXml(reader, null);
+    }
 
-        List<Instruction> out = new ArrayList<>();
+    public static Program parseFromXml(Reader reader, Schema schema) {
+        return load(f -> f.createXMLStreamReader(reader), schema);
+    }
 
-        for (Element e : children(sInstrWrap, "S-Instruction")) {
-            String type = attrOr(e, "name", "");
-            String label = readOptionalLabel(e);
+    /** Reads a program written by {@link ProgramBinary}; the file is memory-mapped and read in one pass. */
+    public static Program parseFromBinary(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return ProgramBinary.read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } catch (IOException | RuntimeException ex) {
+            throw new IllegalArgumentException("Failed to load: " + ex.getMessage(), ex);
+        }
+    }
 
+    public static Program parseFromBinary(byte[] data) {
+        try {
+            return ProgramBinary.read(ByteBuffer.wrap(data));
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Failed to load: " + ex.getMessage(), ex);
+        }
+    }
 
-            if (eq(type, "JUMP_EQUAL_FUNCTION")) {
-                out.add(buildJumpEqualFunction(root, e, label));
-                continue;
-            }
+    /** True when the file starts with the {@link ProgramBinary} magic rather than XML. */
+    public static boolean isBinary(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return ProgramBinary.isBinary(in.readNBytes(4));
+        } catch (IOException ex) {
+            return false;
+        }
+    }
 
+    private interface Opener {
+        XMLStreamReader open(XMLInputFactory f) throws XMLStreamException;
+    }
 
-            if (eq(type, "QUOTE")) {
-                out.add(buildQuoteSynthetic(root, e, label, definedFnNames));
-                continue;
+    private static Program load(Opener opener, Schema schema) {
+        try {
+            XMLStreamReader r;
+            synchronized (XML_INPUT) {
+                r = opener.open(XML_INPUT);
             }
-
-
-            if (eq(type, "ASSIGNMENT")) {
-                String dst = textOfRequired(e, "S-Variable");
-                Element args = firstChild(e, "S-Instruction-Arguments");
-                String src = null;
-                if (args != null) {
-                    for (Element a : children(args, "S-Instruction-Argument")) {
-                        if (eq(attrOr(a, "name", ""), "assignedVariable")) {
-                            src = attrOr(a, "value", "");
-                        }
-                    }
-                }
-                if (src == null || src.isBlank())
-                    throw new IllegalArgumentException("ASSIGNMENT missing assignedVariable");
-                out.add(Instruction.parseFromText(label, dst + " <- " + src, "B", 1));
-                continue;
+            try {
+                if (schema == null) return read(r);
+                Validating v = new Validating(r, schema.newValidatorHandler());
+                Program p = read(v);
+                v.finish();
+                return p;
+            } finally {
+                r.close();
             }
+        } catch (XMLStreamException ex) {
+            throw new IllegalArgumentException("Failed to load: " + describe(ex), ex);
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Failed to load: " + ex.getMessage(), ex);
+        }
+    }
 
-            if (eq(type, "CONSTANT_ASSIGNMENT")) {
-                String dst = textOfRequired(e, "S-Variable");
-                Element args = firstChild(e, "S-Instruction-Arguments");
-                String val = null;
-                if (args != null) {
-                    for (Element a : children(args, "S-Instruction-Argument")) {
-                        if (eq(attrOr(a, "name", ""), "constantValue")) {
-                            val = attrOr(a, "value", "");
-                        }
-                    }
-                }
-                if (val == null || val.isBlank())
-                    throw new IllegalArgumentException("CONSTANT_ASSIGNMENT missing constantValue");
-                out.add(Instruction.parseFromText(label, dst + " <- " + val, "B", 1));
-                continue;
-            }
+    private static String describe(XMLStreamException ex) {
+        String msg = String.valueOf(ex.getMessage());
+        int at = msg.indexOf("Message: ");
+        if (at >= 0) msg = msg.substring(at + "Message: ".length());
+        Location loc = ex.getLocation();
+        return (loc == null) ? msg : msg + " (line " + loc.getLineNumber() + ", column " + loc.getColumnNumber() + ")";
+    }
 
-            if (eq(type, "ZERO_VARIABLE")) {
-                String dst = textOfRequired(e, "S-Variable");
-                out.add(Instruction.parseFromText(label, dst + " <- 0", "B", 1));
-                continue;
-            }
 
+    public static void validateWithXsd(File xml, File xsd) throws Exception {
+        Validator validator = schema(xsd).newValidator();
+        validator.validate(new StreamSource(xml));
+    }
 
-            if (eq(type, "INCREASE")) {
-                String v = textOfRequired(e, "S-Variable");
-                out.add(Instruction.parseFromText(label, v + " <- " + v + " + 1", "B", 1));
-                continue;
-            }
-            if (eq(type, "DECREASE")) {
-                String v = textOfRequired(e, "S-Variable");
-                out.add(Instruction.parseFromText(label, v + " <- " + v + " - 1", "B", 1));
-                continue;
-            }
+    /** The compiled schema for an XSD file. Each path is compiled once; {@link Schema} is thread-safe. */
+    public static Schema schema(File xsd) {
+        String key = xsd.getAbsoluteFile().toPath().normalize().toString();
+        return SCHEMAS.computeIfAbsent(key, k -> compileSchema(new File(k)));
+    }
 
+    private static Schema compileSchema(File xsd) {
+        try {
+            SchemaFactory sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            return sf.newSchema(xsd);
+        } catch (SAXException ex) {
+            throw new IllegalArgumentException("Bad schema " + xsd + ": " + ex.getMessage(), ex);
+        }
+    }
 
-            if (eq(type, "JUMP_NOT_ZERO")) {
-                String v = textOfRequired(e, "S-Variable");
-                String target = readArgValue(firstChild(e, "S-Instruction-Arguments"), "JNZLabel");
-                if (target == null || target.isBlank())
-                    throw new IllegalArgumentException("JUMP_NOT_ZERO missing JNZLabel");
-                out.add(Instruction.parseFromText(label, "IF " + v + " != 0 GOTO " + target, "B", 2));
-                continue;
-            }
 
 
-            if (eq(type, "JUMP_ZERO")) {
-                String v = textOfRequired(e, "S-Variable");
-                String target = readArgValue(firstChild(e, "S-Instruction-Arguments"), "JZLabel");
-                if (target == null || target.isBlank())
-                    throw new IllegalArgumentException("JUMP_ZERO missing JZLabel");
-                out.add(Instruction.parseFromText(label, "IF " + v + " == 0 GOTO " + target, "B", 2));
-                continue;
-            }
+    private static Program read(XMLStreamReader r) throws XMLStreamException {
+        while (!r.isStartElement()) r.next();
+        String root = r.getLocalName();
+        if (eq(root, "program")) return readSimple(r);
+        if (eq(root, "S-Program")) return readCourse(r);
+        throw new IllegalArgumentException("Unknown root: " + root);
+    }
 
 
-            if (eq(type, "GOTO_LABEL") || (eq(type, "SYNTHETIC") && eq(attrOr(e, "name", ""), "GOTO_LABEL"))) {
-                String target = null;
-                Element args = firstChild(e, "S-Instruction-Arguments");
-                if (args != null) {
-                    for (Element a : children(args, "S-Instruction-Argument")) {
-                        String an = attrOr(a, "name", "");
-                        if (eq(an, "gotoLabel") || eq(an, "label")) {
-                            target = attrOr(a, "value", "");
-                        }
+    private static Program readSimple(XMLStreamReader r) throws XMLStreamException {
+        String name = attrOr(r, "name", "Unnamed");
+        List<Instruction> list = null;
+
+        for (int depth = 1; depth > 0; ) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) {
+                if (list == null && r.getLocalName().equals("instructions")) {
+                    list = new ArrayList<>();
+                    while (nextChild(r)) {
+                        if (!r.getLocalName().equals("instruction")) { skip(r); continue; }
+                        Raw e = readRaw(r);
+                        String type = e.attr("type", "B");
+                        String label = e.optional("label");
+                        String command = e.required("command");
+                        Integer cycles = parseIntOrNull(e.optional("cycles"));
+                        list.add(Instruction.parseFromText(label, command, type, cycles == null ? 1 : cycles));
                     }
+                } else {
+                    depth++;
                 }
-                if (target == null || target.isBlank())
-                    throw new IllegalArgumentException("GOTO_LABEL missing label");
-                out.add(Instruction.parseFromText(label, "GOTO " + target, "B", 1));
-                continue;
+            } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                depth--;
             }
-
-
-            out.add(Instruction.parseFromText(label, type, "S", 1));
         }
 
-        Map<String, List<Instruction>> functions = parseFunctions(root);
-        return new Program(name, out, functions);
+        if (list == null) throw new IllegalArgumentException("Missing <instructions>");
+        return new Program(name, list);
     }
 
 
-    private static Map<String, List<Instruction>> parseFunctions(Element root) {
-        Map<String, List<Instruction>> fnMap = new LinkedHashMap<>();
-
-        Element functions = firstChild(root, "S-Functions");
-        if (functions == null) return fnMap;
-
-        for (Element sf : children(functions, "S-Function")) {
-            String fname = attrOr(sf, "name", "");
-            if (fname == null || fname.isBlank()) continue;
-            fname = fname.trim();
-
-            Element body = firstChild(sf, "S-Instructions");
-            if (body == null) {
-                fnMap.put(fname, List.of());
-                continue;
+    /**
+     * Top-level QUOTEs can refer to functions declared later in the document, so they are kept as a
+     * placeholder and resolved once {@code <S-Functions>} has been read.
+     */
+    private static Program readCourse(XMLStreamReader r) throws XMLStreamException {
+        String name = attrOr(r, "name", "Unnamed");
+
+        List<Instruction> out = null;
+        List<Raw> quotes = new ArrayList<>();
+        List<Integer> quoteAt = new ArrayList<>();
+        Map<String, List<Instruction>> functions = new LinkedHashMap<>();
+        Set<String> definedFnNames = new HashSet<>(BUILTIN_FUNCTIONS);
+        Map<String, Integer> constants = new HashMap<>();
+        boolean seenFunctions = false;
+
+        while (nextChild(r)) {
+            String tag = r.getLocalName();
+            if (out == null && tag.equals("S-Instructions")) {
+                out = new ArrayList<>();
+                while (nextChild(r)) {
+                    if (!r.getLocalName().equals("S-Instruction")) { skip(r); continue; }
+                    Raw e = readRaw(r);
+                    if (eq(e.attr("name", ""), "QUOTE")) {
+                        checkQuote(e);
+                        quotes.add(e);
+                        quoteAt.add(out.size());
+                        out.add(null);
+                    } else {
+                        out.add(instruction(e));
+                    }
+                }
+            } else if (!seenFunctions && tag.equals("S-Functions")) {
+                seenFunctions = true;
+                readFunctions(r, functions, definedFnNames, constants);
+            } else {
+                skip(r);
             }
+        }
 
-            List<Instruction> bodyList = new ArrayList<>();
-
-            for (Element e : children(body, "S-Instruction")) {
-                String label = readOptionalLabel(e);
-                String type = attrOr(e, "name", "");
+        if (out == null) throw new IllegalArgumentException("Missing <S-Instructions>");
+        for (int i = 0; i < quotes.size(); i++) {
+            out.set(quoteAt.get(i), resolveQuote(quotes.get(i), definedFnNames, constants));
+        }
+        return new Program(name, out, functions);
+    }
 
-                if (eq(type, "ASSIGNMENT")) {
-                    String dst = textOfRequired(e, "S-Variable");
-                    String src = readArgValue(firstChild(e, "S-Instruction-Arguments"), "assignedVariable");
-                    if (src == null || src.isBlank())
-                        throw new IllegalArgumentException("ASSIGNMENT missing assignedVariable");
-                    bodyList.add(Instruction.parseFromText(label, dst + " <- " + src, "B", 1));
-                    continue;
-                }
 
-                if (eq(type, "CONSTANT_ASSIGNMENT")) {
-                    String dst = textOfRequired(e, "S-Variable");
-                    String val = readArgValue(firstChild(e, "S-Instruction-Arguments"), "constantValue");
-                    if (val == null || val.isBlank())
-                        throw new IllegalArgumentException("CONSTANT_ASSIGNMENT missing constantValue");
-                    bodyList.add(Instruction.parseFromText(label, dst + " <- " + val, "B", 1));
-                    continue;
+    private static void readFunctions(XMLStreamReader r, Map<String, List<Instruction>> fnMap,
+                                      Set<String> names, Map<String, Integer> constants) throws XMLStreamException {
+        while (nextChild(r)) {
+            if (!r.getLocalName().equals("S-Function")) { skip(r); continue; }
+            String declared = attrOr(r, "name", "");
+            String fname = declared.trim();
+            if (!fname.isEmpty()) names.add(fname);
+
+            List<Instruction> bodyList = null;
+            boolean first = true;
+            while (nextChild(r)) {
+                if (bodyList != null || !r.getLocalName().equals("S-Instructions")) { skip(r); continue; }
+                bodyList = new ArrayList<>();
+                while (nextChild(r)) {
+                    if (!r.getLocalName().equals("S-Instruction")) { skip(r); continue; }
+                    Raw e = readRaw(r);
+                    if (first && !constants.containsKey(declared)) constants.put(declared, constantOf(e));
+                    first = false;
+                    bodyList.add(instruction(e));
                 }
+            }
+            if (!constants.containsKey(declared)) constants.put(declared, null);
 
-                if (eq(type, "ZERO_VARIABLE")) {
-                    String dst = textOfRequired(e, "S-Variable");
-                    bodyList.add(Instruction.parseFromText(label, dst + " <- 0", "B", 1));
-                    continue;
-                }
+            if (fname.isEmpty()) continue;
+            fnMap.put(fname, bodyList == null ? List.of() : List.copyOf(bodyList));
+        }
+    }
 
-                if (eq(type, "INCREASE")) {
-                    String v = textOfRequired(e, "S-Variable");
-                    bodyList.add(Instruction.parseFromText(label, v + " <- " + v + " + 1", "B", 1));
-                    continue;
-                }
-                if (eq(type, "DECREASE")) {
-                    String v = textOfRequired(e, "S-Variable");
-                    bodyList.add(Instruction.parseFromText(label, v + " <- " + v + " - 1", "B", 1));
-                    continue;
-                }
 
-                if (eq(type, "JUMP_NOT_ZERO")) {
-                    String v = textOfRequired(e, "S-Variable");
-                    String target = readArgValue(firstChild(e, "S-Instruction-Arguments"), "JNZLabel");
-                    if (target == null || target.isBlank())
-                        throw new IllegalArgumentException("JUMP_NOT_ZERO missing JNZLabel");
-                    bodyList.add(Instruction.parseFromText(label, "IF " + v + " != 0 GOTO " + target, "B", 2));
-                    continue;
-                }
+    private static Instruction instruction(Raw e) {
+        String type = e.attr("name", "");
+        String label = e.label();
 
+        if (eq(type, "JUMP_EQUAL_FUNCTION")) {
+            return buildJumpEqualFunction(e, label);
+        }
 
-                if (eq(type, "JUMP_ZERO")) {
-                    String v = textOfRequired(e, "S-Variable");
-                    String target = readArgValue(firstChild(e, "S-Instruction-Arguments"), "JZLabel");
-                    if (target == null || target.isBlank())
-                        throw new IllegalArgumentException("JUMP_ZERO missing JZLabel");
-                    bodyList.add(Instruction.parseFromText(label, "IF " + v + " == 0 GOTO " + target, "B", 2));
-                    continue;
-                }
+        if (eq(type, "QUOTE")) {
+            String dst = e.required("S-Variable");
+            String fnName = e.arg("functionName");
+            String fnArgs = e.arg("functionArguments");
+            if (fnName == null || fnName.isBlank())
+                throw new IllegalArgumentException("QUOTE missing functionName");
+            if (fnArgs == null) fnArgs = "";
+            String argsNorm = normalizeFunctionArguments(fnArgs);
+            String text = "QUOTE " + dst + " <- " + fnName + "(" + argsNorm + ")";
+            return Instruction.parseFromText(label, text, "S", null);
+        }
 
+        if (eq(type, "ASSIGNMENT")) {
+            String dst = e.required("S-Variable");
+            String src = e.arg("assignedVariable");
+            if (src == null || src.isBlank())
+                throw new IllegalArgumentException("ASSIGNMENT missing assignedVariable");
+            return Instruction.parseFromText(label, dst + " <- " + src, "B", 1);
+        }
 
-                if (eq(type, "GOTO_LABEL") || (eq(type, "SYNTHETIC") && eq(attrOr(e, "name", ""), "GOTO_LABEL"))) {
-                    String target = null;
-                    Element args = firstChild(e, "S-Instruction-Arguments");
-                    if (args != null) {
-                        for (Element a : children(args, "S-Instruction-Argument")) {
-                            String an = attrOr(a, "name", "");
-                            if (eq(an, "gotoLabel") || eq(an, "label")) {
-                                target = attrOr(a, "value", "");
-                            }
-                        }
-                    }
-                    if (target == null || target.isBlank())
-                        throw new IllegalArgumentException("GOTO_LABEL missing label");
-                    bodyList.add(Instruction.parseFromText(label, "GOTO " + target, "B", 1));
-                    continue;
-                }
+        if (eq(type, "CONSTANT_ASSIGNMENT")) {
+            String dst = e.required("S-Variable");
+            String val = e.arg("constantValue");
+            if (val == null || val.isBlank())
+                throw new IllegalArgumentException("CONSTANT_ASSIGNMENT missing constantValue");
+            return Instruction.parseFromText(label, dst + " <- " + val, "B", 1);
+        }
 
+        if (eq(type, "ZERO_VARIABLE")) {
+            String dst = e.required("S-Variable");
+            return Instruction.parseFromText(label, dst + " <- 0", "B", 1);
+        }
 
-                if (eq(type, "QUOTE")) {
-                    String dst = textOfRequired(e, "S-Variable");
-                    Element args = firstChild(e, "S-Instruction-Arguments");
-                    String fnName = null;
-                    String fnArgs = "";
-                    if (args != null) {
-                        for (Element a : children(args, "S-Instruction-Argument")) {
-                            String n = attrOr(a, "name", "");
-                            if (eq(n, "functionName"))           fnName = attrOr(a, "value", "");
-                            else if (eq(n, "functionArguments")) fnArgs = attrOr(a, "value", "");
-                        }
-                    }
-                    if (fnName == null || fnName.isBlank())
-                        throw new IllegalArgumentException("QUOTE missing functionName");
-                    if (fnArgs == null) fnArgs = "";
-                    String argsNorm = normalizeFunctionArguments(fnArgs);
-                    String text = "QUOTE " + dst + " <- " + fnName + "(" + argsNorm + ")";
-                    bodyList.add(Instruction.parseFromText(label, text, "S", null));
-                    continue;
-                }
+        if (eq(type, "INCREASE")) {
+            String v = e.required("S-Variable");
+            return Instruction.parseFromText(label, v + " <- " + v + " + 1", "B", 1);
+        }
+        if (eq(type, "DECREASE")) {
+            String v = e.required("S-Variable");
+            return Instruction.parseFromText(label, v + " <- " + v + " - 1", "B", 1);
+        }
 
-                if (eq(type, "JUMP_EQUAL_FUNCTION")) {
-                    bodyList.add(buildJumpEqualFunction(root, e, label));
-                    continue;
-                }
+        if (eq(type, "JUMP_NOT_ZERO")) {
+            String v = e.required("S-Variable");
+            String target = e.arg("JNZLabel");
+            if (target == null || target.isBlank())
+                throw new IllegalArgumentException("JUMP_NOT_ZERO missing JNZLabel");
+            return Instruction.parseFromText(label, "IF " + v + " != 0 GOTO " + target, "B", 2);
+        }
 
+        if (eq(type, "JUMP_ZERO")) {
+            String v = e.required("S-Variable");
+            String target = e.arg("JZLabel");
+            if (target == null || target.isBlank())
+                throw new IllegalArgumentException("JUMP_ZERO missing JZLabel");
+            return Instruction.parseFromText(label, "IF " + v + " == 0 GOTO " + target, "B", 2);
+        }
 
-                bodyList.add(Instruction.parseFromText(label, type, "S", 1));
+        if (eq(type, "GOTO_LABEL")) {
+            String target = null;
+            if (e.args != null) {
+                for (String[] a : e.args) {
+                    if (eq(a[0], "gotoLabel") || eq(a[0], "label")) target = a[1];
+                }
             }
-
-            fnMap.put(fname, List.copyOf(bodyList));
+            if (target == null || target.isBlank())
+                throw new IllegalArgumentException("GOTO_LABEL missing label");
+            return Instruction.parseFromText(label, "GOTO " + target, "B", 1);
         }
 
-        return fnMap;
+        return Instruction.parseFromText(label, type, "S", 1);
     }
 
-    private static Instruction buildQuoteSynthetic(Element root, Element e, String label, Set<String> definedFnNames) {
-        String dst = textOfRequired(e, "S-Variable");
 
-        Element argsWrap = firstChild(e, "S-Instruction-Arguments");
-        String fnName = null;
-        String fnArgs = "";
-        if (argsWrap != null) {
-            for (Element a : children(argsWrap, "S-Instruction-Argument")) {
-                String n = attrOr(a, "name", "");
-                if (eq(n, "functionName"))           fnName = attrOr(a, "value", "");
-                else if (eq(n, "functionArguments")) fnArgs = attrOr(a, "value", "");
-            }
-        }
+    /** The checks on a top-level QUOTE that do not depend on the declared functions. */
+    private static void checkQuote(Raw e) {
+        e.required("S-Variable");
+        String fnName = e.arg("functionName");
         if (fnName == null || fnName.isBlank())
             throw new IllegalArgumentException("QUOTE: missing functionName");
+        String fnArgs = e.arg("functionArguments");
+        if (fnArgs != null && !fnArgs.isBlank()) forbidOuterWrappingOfMultiArgs(fnArgs);
+    }
+
+    private static Instruction resolveQuote(Raw e, Set<String> definedFnNames, Map<String, Integer> constants) {
+        String label = e.label();
+        String dst = e.required("S-Variable");
+        String fnName = e.arg("functionName");
+        String fnArgs = e.arg("functionArguments");
 
         if (fnArgs == null) fnArgs = "";
         if (!fnArgs.isBlank()) {
-            forbidOuterWrappingOfMultiArgs(fnArgs);
             String argsNorm = normalizeFunctionArguments(fnArgs);
             verifyFunctionsExist(definedFnNames, topLevelFunctionNames(argsNorm));
             String text = "QUOTE " + dst + " <- " + fnName + "(" + argsNorm + ")";
             return Instruction.parseFromText(label, text, "S", null);
         }
 
-
-        Integer constVal = tryResolveConstFunction(root, fnName);
+        Integer constVal = constants.get(fnName);
         if (constVal == null)
             throw new IllegalArgumentException("QUOTE: function '" + fnName + "' must be a constant function");
         return Instruction.parseFromText(label, dst + " <- " + constVal, "B", 1);
     }
 
 
-    private static Instruction buildJumpEqualFunction(Element root, Element e, String label) {
-        String varName = textOfRequired(e, "S-Variable");
+    private static Instruction buildJumpEqualFunction(Raw e, String label) {
+        String varName = e.required("S-Variable");
 
-        Element args = firstChild(e, "S-Instruction-Arguments");
-        if (args == null) {
+        if (e.args == null) {
             throw new IllegalArgumentException("JUMP_EQUAL_FUNCTION missing <S-Instruction-Arguments>");
         }
 
@@ -369,9 +416,9 @@ public final class ProgramParser {
         String jumpTarget = null;
         List<String> argVals = new ArrayList<>();
 
-        for (Element a : children(args, "S-Instruction-Argument")) {
-            String an = attrOr(a, "name", "");
-            String av = attrOr(a, "value", "");
+        for (String[] a : e.args) {
+            String an = a[0];
+            String av = a[1];
             if (eq(an, "JEFunctionLabel") || eq(an, "JZLabel")) {
                 jumpTarget = av;
             } else if (eq(an, "functionName")) {
@@ -396,17 +443,22 @@ public final class ProgramParser {
     }
 
 
+    /** The value of a function whose first instruction is {@code y <- constant}, otherwise null. */
+    private static Integer constantOf(Raw first) {
+        if (!eq(first.attr("name", ""), "CONSTANT_ASSIGNMENT")) return null;
+        if (!"y".equals(first.required("S-Variable"))) return null;
+        if (first.args == null) return null;
 
-
-    private static Set<String> collectFunctionNames(Element root) {
-        Set<String> names = new HashSet<>();
-        Element functions = firstChild(root, "S-Functions");
-        if (functions == null) return names;
-        for (Element sf : children(functions, "S-Function")) {
-            String name = attrOr(sf, "name", "").trim();
-            if (!name.isEmpty()) names.add(name);
+        for (String[] a : first.args) {
+            if (eq(a[0], "constantValue") && !a[1].isBlank()) {
+                try {
+                    return Integer.parseInt(a[1].trim());
+                } catch (NumberFormatException ignore) {
+                    return null;
+                }
+            }
         }
-        return names;
+        return null;
     }
 
 
@@ -419,46 +471,6 @@ public final class ProgramParser {
     }
 
 
-    private static Integer tryResolveConstFunction(Element root, String functionName) {
-        Element functions = firstChild(root, "S-Functions");
-        if (functions == null) return null;
-
-        for (Element sf : children(functions, "S-Function")) {
-            String name = attrOr(sf, "name", "");
-            if (!name.equals(functionName)) continue;
-
-            Element insWrap = firstChild(sf, "S-Instructions");
-            if (insWrap == null) return null;
-
-            Element one = firstChild(insWrap, "S-Instruction");
-            if (one == null) return null;
-
-            String type = attrOr(one, "name", "");
-            if (!eq(type, "CONSTANT_ASSIGNMENT")) return null;
-
-            String dst = textOfRequired(one, "S-Variable");
-            if (!"y".equals(dst)) return null;
-
-            Element args = firstChild(one, "S-Instruction-Arguments");
-            if (args == null) return null;
-
-            for (Element a : children(args, "S-Instruction-Argument")) {
-                if (eq(attrOr(a, "name", ""), "constantValue")) {
-                    String val = attrOr(a, "value", "");
-                    if (val != null && !val.isBlank()) {
-                        try {
-                            return Integer.parseInt(val.trim());
-                        } catch (NumberFormatException ignore) {
-                            return null;
-                        }
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-
     private static List<String> topLevelFunctionNames(String argsNorm) {
 
         List<String> names = new ArrayList<>();
@@ -546,81 +558,185 @@ public final class ProgramParser {
 
 
 
-    private static String readArgValue(Element args, String wantedName) {
-        if (args == null) return null;
-        for (Element a : children(args, "S-Instruction-Argument")) {
-            if (eq(attrOr(a, "name", ""), wantedName)) {
-                return attrOr(a, "value", "");
+
+    /**
+     * Feeds every event the parser pulls to a schema {@link ValidatorHandler}, so validation happens
+     * during the same read. Errors surface as {@link XMLStreamException}s at the offending event.
+     */
+    private static final class Validating extends StreamReaderDelegate {
+        private final ValidatorHandler handler;
+
+        Validating(XMLStreamReader r, ValidatorHandler handler) throws XMLStreamException {
+            super(r);
+            this.handler = handler;
+            handler.setDocumentLocator(new Locator() {
+                @Override public String getPublicId() { return getLocation().getPublicId(); }
+                @Override public String getSystemId() { return getLocation().getSystemId(); }
+                @Override public int getLineNumber() { return getLocation().getLineNumber(); }
+                @Override public int getColumnNumber() { return getLocation().getColumnNumber(); }
+            });
+            try {
+                handler.startDocument();
+            } catch (SAXException ex) {
+                throw new XMLStreamException(ex.getMessage(), getLocation(), ex);
             }
         }
-        return null;
-    }
 
-    private static Integer parseIntOrNull(String s) {
-        if (s == null || s.isBlank()) return null;
-        try { return Integer.parseInt(s.trim()); } catch (Exception ignore) { return null; }
+        @Override
+        public int next() throws XMLStreamException {
+            int ev = super.next();
+            try {
+                switch (ev) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        for (int i = 0; i < getNamespaceCount(); i++) {
+                            handler.startPrefixMapping(orEmpty(getNamespacePrefix(i)), orEmpty(getNamespaceURI(i)));
+                        }
+                        AttributesImpl atts = new AttributesImpl();
+                        for (int i = 0; i < getAttributeCount(); i++) {
+                            String local = getAttributeLocalName(i);
+                            atts.addAttribute(orEmpty(getAttributeNamespace(i)), local,
+                                    qname(getAttributePrefix(i), local), "CDATA", getAttributeValue(i));
+                        }
+                        handler.startElement(orEmpty(getNamespaceURI()), getLocalName(),
+                                qname(getPrefix(), getLocalName()), atts);
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        handler.endElement(orEmpty(getNamespaceURI()), getLocalName(),
+                                qname(getPrefix(), getLocalName()));
+                        for (int i = 0; i < getNamespaceCount(); i++) {
+                            handler.endPrefixMapping(orEmpty(getNamespacePrefix(i)));
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE ->
+                            handler.characters(getTextCharacters(), getTextStart(), getTextLength());
+                    case XMLStreamConstants.END_DOCUMENT -> handler.endDocument();
+                    default -> { }
+                }
+            } catch (SAXException ex) {
+                throw new XMLStreamException(ex.getMessage(), getLocation(), ex);
+            }
+            return ev;
+        }
+
+        /** Reads (and validates) whatever follows the point where the parser stopped. */
+        void finish() throws XMLStreamException {
+            while (hasNext()) next();
+        }
+
+        private static String orEmpty(String s) { return s == null ? "" : s; }
+
+        private static String qname(String prefix, String local) {
+            return (prefix == null || prefix.isEmpty()) ? local : prefix + ":" + local;
+        }
     }
 
-    private static String textOfRequired(Element parent, String tag) {
-        Element c = firstChild(parent, tag);
-        if (c == null) throw new IllegalArgumentException("Missing <" + tag + ">");
-        String t = text(c);
-        if (t == null || t.isBlank()) throw new IllegalArgumentException("Empty <" + tag + ">");
-        return t.trim();
+    /** One instruction element: its attributes, the text of its descendants, and its arguments. */
+    private static final class Raw {
+        final Map<String, String> attrs = new HashMap<>();
+        final Map<String, String> texts = new HashMap<>();
+        List<String[]> args;
+
+        String attr(String name, String def) {
+            String v = attrs.get(name);
+            return (v == null || v.isBlank()) ? def : v;
+        }
+
+        String optional(String tag) {
+            String t = texts.get(tag);
+            return (t == null || t.isBlank()) ? null : t.trim();
+        }
+
+        String required(String tag) {
+            String t = texts.get(tag);
+            if (t == null) throw new IllegalArgumentException("Missing <" + tag + ">");
+            if (t.isBlank()) throw new IllegalArgumentException("Empty <" + tag + ">");
+            return t.trim();
+        }
+
+        String arg(String name) {
+            if (args == null) return null;
+            for (String[] a : args) {
+                if (eq(a[0], name)) return a[1];
+            }
+            return null;
+        }
+
+        String label() {
+            String t = optional("S-Label");
+            if (t != null) return t;
+            t = optional("S-Instruction-Label");
+            if (t != null) return t;
+            String attr = attrs.get("label");
+            return (attr == null || attr.isBlank()) ? null : attr.trim();
+        }
     }
 
-    private static String textOfOptional(Element parent, String tag) {
-        Element c = firstChild(parent, tag);
-        if (c == null) return null;
-        String t = text(c);
-        return (t == null || t.isBlank()) ? null : t.trim();
+    /** Reads the element the cursor is on up to its end tag. */
+    private static Raw readRaw(XMLStreamReader r) throws XMLStreamException {
+        Raw raw = new Raw();
+        for (int i = 0; i < r.getAttributeCount(); i++) {
+            raw.attrs.put(r.getAttributeLocalName(i), r.getAttributeValue(i));
+        }
+
+        List<String> tags = new ArrayList<>();
+        List<StringBuilder> texts = new ArrayList<>();
+        int argsDepth = -1;
+
+        while (true) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) {
+                String tag = r.getLocalName();
+                if (tag.equals("S-Instruction-Argument") && argsDepth == tags.size()) {
+                    raw.args.add(new String[] { attrOr(r, "name", ""), attrOr(r, "value", "") });
+                }
+                tags.add(tag);
+                texts.add(new StringBuilder());
+                if (tag.equals("S-Instruction-Arguments") && raw.args == null) {
+                    raw.args = new ArrayList<>();
+                    argsDepth = tags.size();
+                }
+            } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                if (tags.isEmpty()) return raw;
+                int top = tags.size() - 1;
+                if (argsDepth == tags.size()) argsDepth = -1;
+                raw.texts.putIfAbsent(tags.remove(top), texts.remove(top).toString());
+            } else if (ev == XMLStreamConstants.CHARACTERS || ev == XMLStreamConstants.CDATA
+                    || ev == XMLStreamConstants.SPACE) {
+                for (StringBuilder sb : texts) {
+                    sb.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                }
+            }
+        }
     }
 
-    private static Element firstChild(Element parent, String tag) {
-        if (parent == null) return null;
-        NodeList nl = parent.getElementsByTagName(tag);
-        return nl.getLength() == 0 ? null : (Element) nl.item(0);
+    /** Advances to the next child start tag of the current element; false once its end tag is reached. */
+    private static boolean nextChild(XMLStreamReader r) throws XMLStreamException {
+        while (true) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) return true;
+            if (ev == XMLStreamConstants.END_ELEMENT) return false;
+        }
     }
 
-    private static List<Element> children(Element parent, String tag) {
-        List<Element> list = new ArrayList<>();
-        NodeList nl = parent.getElementsByTagName(tag);
-        for (int i = 0; i < nl.getLength(); i++) {
-            Node n = nl.item(i);
-            if (n.getParentNode() == parent && n instanceof Element) {
-                list.add((Element) n);
-            }
+    private static void skip(XMLStreamReader r) throws XMLStreamException {
+        for (int depth = 1; depth > 0; ) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT) depth--;
         }
-        return list;
     }
 
-    private static String text(Node node) {
-        return node == null ? null : node.getTextContent();
+    private static Integer parseIntOrNull(String s) {
+        if (s == null || s.isBlank()) return null;
+        try { return Integer.parseInt(s.trim()); } catch (Exception ignore) { return null; }
     }
 
-    private static String attrOr(Element el, String attr, String def) {
-        if (el == null) return def;
-        String v = el.getAttribute(attr);
+    private static String attrOr(XMLStreamReader r, String attr, String def) {
+        String v = r.getAttributeValue(null, attr);
         return (v == null || v.isBlank()) ? def : v;
     }
 
     private static boolean eq(String a, String b) {
         return a != null && a.equalsIgnoreCase(b);
     }
-
-
-    private static String readOptionalLabel(Element insEl) {
-        Element c = firstChild(insEl, "S-Label");
-        if (c != null) {
-            String t = text(c);
-            if (t != null && !t.isBlank()) return t.trim();
-        }
-        Element legacy = firstChild(insEl, "S-Instruction-Label");
-        if (legacy != null) {
-            String t = text(legacy);
-            if (t != null && !t.isBlank()) return t.trim();
-        }
-        String attr = insEl.getAttribute("label");
-        return (attr == null || attr.isBlank()) ? null : attr.trim();
-    }
 }
@@ -12,21 +12,43 @@ public final class Runner {
         public final int cycles;
         public final LinkedHashMap<String,Integer> variables;
         public final int y;
+        /** True when the run was stopped because its {@link CycleMeter} granted no more cycles. */
+        public final boolean meterExhausted;
 
-        RunResult(Program.Rendered rendered, int degree, int cycles, LinkedHashMap<String,Integer> vars) {
+        RunResult(Program.Rendered rendered, int degree, int cycles, LinkedHashMap<String,Integer> vars,
+                  boolean meterExhausted) {
             this.rendered = rendered;
             this.degree = degree;
             this.cycles = cycles;
             this.variables = vars;
             this.y = vars.getOrDefault("y", 0);
+            this.meterExhausted = meterExhausted;
         }
     }
 
+    /**
+     * Hands out cycles to a run in batches. The run only calls back when the cycles granted so far
+     * are used up, so the meter may do synchronized or atomic work without slowing the loop.
+     */
+    public interface CycleMeter {
+        /** Returns how many more cycles may run; 0 (or less) stops the run. */
+        long grant(long usedSoFar);
+
+        /** Same as {@link #grant(long)}, also told the index of the instruction about to run. */
+        default long grant(long usedSoFar, int pc) {
+            return grant(usedSoFar);
+        }
+    }
 
     public static RunResult run(Program program, int degree, List<Integer> inputs) {
+        return run(program, degree, inputs, null);
+    }
+
+    /** Runs with cycles drawn from {@code meter}, or unbounded when it is null. */
+    public static RunResult run(Program program, int degree, List<Integer> inputs, CycleMeter meter) {
         if (program == null) throw new IllegalArgumentException("Program is null");
         degree = Math.max(0, Math.min(degree, program.maxDegree()));
-        Program.Rendered r = program.expandToDegree(degree);
+        Program.Rendered r = program.executable(degree);
 
         LinkedHashMap<String,Integer> vars = new LinkedHashMap<>();
         vars.put("y", 0);
@@ -38,6 +60,9 @@ public final class Runner {
 
         int pc = 0;
         int cycles = 0;
+        long allowance = (meter == null) ? Long.MAX_VALUE : 0;
+        boolean exhausted = false;
+        Deque<Integer> returns = new ArrayDeque<>();
 
 
         Map<String,Integer> labelToIndex = new HashMap<>();
@@ -52,8 +77,37 @@ public final class Runner {
             Instruction inst = r.list.get(pc);
             String text = inst.text == null ? "" : inst.text.trim();
 
-
-            cycles += Math.max(0, inst.cycles());
+            int cost = Math.max(0, inst.cycles());
+            if (cycles + cost > allowance) {
+                allowance += more(meter, cycles, pc, cycles + cost - allowance);
+                if (cycles + cost > allowance) {
+                    exhausted = true;
+                    break;
+                }
+            }
+            cycles += cost;
+
+            if (inst instanceof Instruction.Transfer t) {
+                // an unset source leaves the target unset, so copies into and out of shared bodies
+                // report the same variables as the inlined code the debugger runs
+                Integer v = (t.src == null) ? Integer.valueOf(0) : vars.get(t.src.name());
+                if (v == null) vars.remove(t.dst.name());
+                else vars.put(t.dst.name(), v);
+                pc++;
+                continue;
+            }
+            if (inst instanceof Instruction.SubCall c) {
+                Integer idx = labelToIndex.get(c.target.toUpperCase(Locale.ROOT));
+                if (idx == null) throw new IllegalStateException("Unknown label: " + c.target);
+                returns.push(pc + 1);
+                pc = idx;
+                continue;
+            }
+            if (inst instanceof Instruction.SubReturn) {
+                if (returns.isEmpty()) break;
+                pc = returns.pop();
+                continue;
+            }
 
             Matcher m;
             if ((m = RX_GOTO.matcher(text)).matches()) {
@@ -166,7 +220,31 @@ public final class Runner {
             pc++;
         }
 
-        return new RunResult(r, degree, cycles, vars);
+        if (r.scratchZ != Integer.MAX_VALUE) {
+            vars.keySet().removeIf(v -> isScratch(v, r.scratchZ));
+        }
+        return new RunResult(r, degree, cycles, vars, exhausted);
+    }
+
+    /** Asks the meter until at least {@code needed} more cycles are granted or it stops granting. */
+    private static long more(CycleMeter meter, int used, int pc, long needed) {
+        long got = 0;
+        while (got < needed) {
+            long g = meter.grant(used, pc);
+            if (g <= 0) break;
+            got += g;
+        }
+        return got;
+    }
+
+    /** Variables of the shared-call machinery, which the display rendering does not have. */
+    private static boolean isScratch(String name, int scratchZ) {
+        if (name.length() < 2 || (name.charAt(0) != 'z' && name.charAt(0) != 'Z')) return false;
+        try {
+            return Integer.parseInt(name.substring(1)) >= scratchZ;
+        } catch (NumberFormatException e) {
+            return false;
+        }
     }
 
     private static int get(Map<String,Integer> vars, String name) {
@@ -177,30 +255,30 @@ public final class Runner {
     }
 
 
-    private static final Pattern RX_GOTO = Pattern.compile("^GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_GOTO = Pattern.compile("^GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_IF_EQ_ZERO = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*==\\s*0\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern RX_IF_NE_ZERO = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*!=\\s*0\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_IF_EQ_ZERO = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*==\\s*0\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_IF_NE_ZERO = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*!=\\s*0\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_IF_EQ_VAR = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*==\\s*([xyz]\\d*|y)\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_IF_EQ_VAR = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*==\\s*([xyz]\\d*|y)\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_IF_EQ_CONST = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*==\\s*(\\d+)\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_IF_EQ_CONST = Pattern.compile("^IF\\s+([xyz]\\d*|y)\\s*==\\s*(\\d+)\\s+GOTO\\s+(EXIT|L\\d+)$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_INC = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*\\1\\s*\\+\\s*1$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_INC = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*\\1\\s*\\+\\s*1$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_DEC = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*\\1\\s*-\\s*1$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_DEC = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*\\1\\s*-\\s*1$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_ASSIGN_VAR = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*([xyz]\\d*|y)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_ASSIGN_VAR = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*([xyz]\\d*|y)$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_ASSIGN_CONST = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*(\\d+)$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_ASSIGN_CONST = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*(\\d+)$", Pattern.CASE_INSENSITIVE);
 
 
-    private static final Pattern RX_ZERO = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*0$", Pattern.CASE_INSENSITIVE);
+    static final Pattern RX_ZERO = Pattern.compile("^([xyz]\\d*|y)\\s*<-\\s*0$", Pattern.CASE_INSENSITIVE);
 }
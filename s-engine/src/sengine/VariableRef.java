@@ -1,32 +1,92 @@
 package sengine;
 
-import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Variable references are interned: {@link #of}, {@link #y()} and {@link #parse} always return the
+ * same instance for the same variable, so references can be compared with {@code ==}.
+ */
 public final class VariableRef implements Comparable<VariableRef> {
     public enum Kind { X, Z, Y }
+
+    /** Indexes below this are kept in a flat per-kind table; larger ones go through a map. */
+    private static final int TABLE_LIMIT = 1 << 20;
+
+    private static final VariableRef Y = new VariableRef(Kind.Y, 0);
+    private static final Object GROW_LOCK = new Object();
+    private static volatile VariableRef[] xs = new VariableRef[64];
+    private static volatile VariableRef[] zs = new VariableRef[64];
+    private static final ConcurrentHashMap<Long, VariableRef> overflow = new ConcurrentHashMap<>();
+
     private final Kind kind;
     private final int index;
+    private final int hash;
 
     private VariableRef(Kind kind, int index) {
         this.kind = kind;
         this.index = index;
+        this.hash = kind.ordinal() * 31 + index;
     }
 
-    public static VariableRef y() { return new VariableRef(Kind.Y, 0); }
+    public static VariableRef y() { return Y; }
+
+    public static VariableRef of(Kind k, int idx) {
+        if (k == Kind.Y) return Y;
+        if (idx < 0) throw new IllegalArgumentException("Bad var index: " + idx);
+        VariableRef[] table = (k == Kind.X) ? xs : zs;
+        if (idx < table.length) {
+            VariableRef v = table[idx];
+            if (v != null) return v;
+        }
+        return intern(k, idx);
+    }
 
-    public static VariableRef of(Kind k, int idx) { return new VariableRef(k, idx); }
+    private static VariableRef intern(Kind k, int idx) {
+        if (idx >= TABLE_LIMIT) {
+            return overflow.computeIfAbsent(((long) k.ordinal() << 32) | idx, key -> new VariableRef(k, idx));
+        }
+        synchronized (GROW_LOCK) {
+            VariableRef[] table = (k == Kind.X) ? xs : zs;
+            if (idx >= table.length) {
+                int size = table.length;
+                while (size <= idx) size <<= 1;
+                table = Arrays.copyOf(table, Math.min(size, TABLE_LIMIT));
+            }
+            VariableRef v = table[idx];
+            if (v == null) {
+                v = new VariableRef(k, idx);
+                table[idx] = v;
+            }
+            if (k == Kind.X) xs = table; else zs = table;
+            return v;
+        }
+    }
 
     public static VariableRef parse(String token) {
-        token = token.trim().toLowerCase();
-        if (token.equals("y")) return y();
-        Pattern p = Pattern.compile("^([xz])(\\d+)$", Pattern.CASE_INSENSITIVE);
-        Matcher m = p.matcher(token);
-        if (!m.matches()) throw new IllegalArgumentException("Bad var: " + token);
-        Kind k = m.group(1).equalsIgnoreCase("x") ? Kind.X : Kind.Z;
-        int idx = Integer.parseInt(m.group(2));
-        return of(k, idx);
+        int from = 0, to = token.length();
+        while (from < to && token.charAt(from) <= ' ') from++;
+        while (to > from && token.charAt(to - 1) <= ' ') to--;
+        if (from == to) throw badVar(token);
+
+        char c = Character.toLowerCase(token.charAt(from));
+        if (c == 'y' && to - from == 1) return Y;
+        if ((c != 'x' && c != 'z') || to - from == 1) throw badVar(token);
+
+        int idx = 0;
+        for (int i = from + 1; i < to; i++) {
+            char d = token.charAt(i);
+            if (d < '0' || d > '9') throw badVar(token);
+            if (idx > (Integer.MAX_VALUE - 9) / 10) {
+                return of(c == 'x' ? Kind.X : Kind.Z, Integer.parseInt(token.substring(from + 1, to)));
+            }
+            idx = idx * 10 + (d - '0');
+        }
+        return of(c == 'x' ? Kind.X : Kind.Z, idx);
+    }
+
+    private static IllegalArgumentException badVar(String token) {
+        return new IllegalArgumentException("Bad var: " + token.trim().toLowerCase());
     }
 
     public String name() {
@@ -45,7 +105,7 @@ public final class VariableRef implements Comparable<VariableRef> {
         if (!(o instanceof VariableRef v)) return false;
         return kind == v.kind && index == v.index;
     }
-    @Override public int hashCode() { return Objects.hash(kind, index); }
+    @Override public int hashCode() { return hash; }
     @Override public int compareTo(VariableRef o) {
         if (this.kind == Kind.Y && o.kind != Kind.Y) return -1;
         if (this.kind != Kind.Y && o.kind == Kind.Y) return 1;
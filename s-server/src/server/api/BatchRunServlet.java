@@ -0,0 +1,99 @@
+package server.api;
+
+import server.core.EngineFacade;
+import server.core.RunManager;
+import server.core.SimpleJson;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * POST /api/runs/batch with a JSON body
+ * {"programId": "...", "degree": 0, "inputs": [[1,2], [3,4], ...]}
+ * and answers {"results": [[y, cycles], ...], "outOfCredits": [indexes]} in input order.
+ */
+@WebServlet(urlPatterns = {"/api/runs/batch"})
+public class BatchRunServlet extends HttpServlet {
+
+    private EngineFacade facade() {
+        Object f = getServletContext().getAttribute("facade");
+        return (f instanceof EngineFacade ef) ? ef : null;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        Map<String, Object> body = SimpleJson.parse(req.getReader().lines().collect(Collectors.joining()));
+
+        String userId = body.get("userId") == null ? null : String.valueOf(body.get("userId"));
+        if (userId == null) {
+            HttpSession session = req.getSession(false);
+            Object uid = (session == null) ? null : session.getAttribute("userId");
+            if (uid != null) userId = String.valueOf(uid);
+        }
+        String programId = body.get("programId") == null ? null : String.valueOf(body.get("programId"));
+        String function = body.get("function") == null ? "(main)" : String.valueOf(body.get("function"));
+        String arch = body.get("architecture") == null ? "Basic" : String.valueOf(body.get("architecture"));
+
+        if (programId == null || programId.isBlank()) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", "programId is required"));
+            return;
+        }
+
+        int degree;
+        List<List<Integer>> inputs;
+        try {
+            Object d = body.get("degree");
+            degree = (d instanceof Number n) ? n.intValue() : (d == null ? 0 : Integer.parseInt(d.toString().trim()));
+            inputs = vectors(body.get("inputs"));
+        } catch (IllegalArgumentException ex) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", "inputs must be a list of integer lists"));
+            return;
+        }
+
+        try {
+            List<EngineFacade.BatchResult> results = facade().runBatch(userId, programId, function, inputs, degree, arch);
+
+            StringBuilder sb = new StringBuilder(16 * results.size() + 32);
+            StringBuilder stopped = new StringBuilder();
+            sb.append("{\"results\":[");
+            for (int i = 0; i < results.size(); i++) {
+                EngineFacade.BatchResult r = results.get(i);
+                if (i > 0) sb.append(',');
+                sb.append('[').append(r.y()).append(',').append(r.cycles()).append(']');
+                if (r.outOfCredits()) {
+                    if (stopped.length() > 0) stopped.append(',');
+                    stopped.append(i);
+                }
+            }
+            sb.append("],\"outOfCredits\":[").append(stopped).append("]}");
+            resp.getWriter().write(sb.toString());
+        } catch (RunManager.BusyException ex) {
+            StartRunServlet.tooBusy(resp, ex);
+        } catch (Exception ex) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", String.valueOf(ex.getMessage())));
+        }
+    }
+
+    private static List<List<Integer>> vectors(Object raw) {
+        if (!(raw instanceof List<?> list)) throw new IllegalArgumentException("inputs");
+        List<List<Integer>> out = new ArrayList<>(list.size());
+        for (Object v : list) {
+            if (!(v instanceof List<?> xs)) throw new IllegalArgumentException("inputs");
+            List<Integer> vec = new ArrayList<>(xs.size());
+            for (Object x : xs) {
+                if (x instanceof Number n) vec.add(n.intValue());
+                else if (x != null) vec.add(Integer.parseInt(x.toString().trim()));
+            }
+            out.add(vec);
+        }
+        return out;
+    }
+}
@@ -1,5 +1,6 @@
 package server.api;
 
+import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import jakarta.servlet.annotation.WebListener;
@@ -9,23 +10,121 @@ import server.core.EngineFacadeImpl;
 import server.core.ProgramStore;
 import server.core.RunManager;
 import server.core.UserStore;
+import sengine.ProgramParser;
+
+import javax.xml.validation.Schema;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 
 @WebListener
 public class Bootstrap implements ServletContextListener {
 
+    private RunManager runManager;
+
     @Override
     public void contextInitialized(ServletContextEvent sce) {
-        ProgramStore programStore = ProgramStore.get();
+        ServletContext ctx = sce.getServletContext();
+        ProgramStore programStore = programStore(ctx);
         UserStore userStore       = UserStore.get();
-        RunManager runManager     = new RunManager();
+        runManager = new RunManager(
+                Duration.ofMinutes(intParam(ctx, "sengine.debug.idleMinutes", (int) RunManager.DEFAULT_IDLE_TTL.toMinutes())),
+                intParam(ctx, "sengine.debug.maxSessions", RunManager.DEFAULT_MAX_SESSIONS),
+                intParam(ctx, "sengine.debug.maxMegabytes", (int) (RunManager.DEFAULT_MAX_SESSION_BYTES >> 20)) * (1L << 20),
+                spillDir(ctx),
+                Duration.ofSeconds(intParam(ctx, "sengine.debug.spillAfterSeconds", (int) RunManager.DEFAULT_SPILL_AFTER.toSeconds())),
+                programStore::get,
+                intParam(ctx, "sengine.history.perUser", RunManager.DEFAULT_HISTORY_PER_USER));
 
-        EngineFacade facade = new EngineFacadeImpl(programStore, userStore, runManager);
+        runManager.limitRuns(
+                intParam(ctx, "sengine.runs.concurrency", RunManager.DEFAULT_RUN_CONCURRENCY),
+                intParam(ctx, "sengine.runs.queue", RunManager.DEFAULT_RUN_QUEUE),
+                intParam(ctx, "sengine.runs.perUser", RunManager.DEFAULT_RUNS_PER_USER));
+        System.out.println("[Bootstrap] Run jobs on " + (runManager.virtualThreads() ? "virtual" : "platform") + " threads");
+        useHistoryLog(ctx, runManager);
 
-        sce.getServletContext().setAttribute("facade", facade);
+        Schema schema = uploadSchema(ctx);
+        EngineFacade facade = new EngineFacadeImpl(programStore, userStore, runManager, schema);
+
+        ctx.setAttribute("facade", facade);
         System.out.println("[Bootstrap] EngineFacade registered under key 'facade'");
     }
 
+    private static int intParam(ServletContext ctx, String name, int def) {
+        String v = ctx.getInitParameter(name);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("[Bootstrap] Ignoring non-numeric " + name + "=" + v);
+            return def;
+        }
+    }
+
+    /** Run history is kept in the "sengine.history.log" file when set, otherwise in memory. */
+    private static void useHistoryLog(ServletContext ctx, RunManager runs) {
+        String file = ctx.getInitParameter("sengine.history.log");
+        if (file == null || file.isBlank()) return;
+        try {
+            runs.useHistoryLog(Path.of(file));
+            System.out.println("[Bootstrap] Run history logged to " + file);
+        } catch (IOException e) {
+            System.out.println("[Bootstrap] Cannot open history log " + file + " (" + e.getMessage()
+                    + "), keeping history in memory");
+        }
+    }
+
+    /** Idle debug sessions are written to "sengine.debug.spillDir" when set, otherwise dropped. */
+    private static Path spillDir(ServletContext ctx) {
+        String dir = ctx.getInitParameter("sengine.debug.spillDir");
+        return (dir == null || dir.isBlank()) ? null : Path.of(dir);
+    }
+
+    /**
+     * In-memory by default. With the "sengine.store.dir" context parameter, programs persist in that
+     * directory and survive restarts; "sengine.store.hot" bounds how many stay in memory.
+     */
+    private static ProgramStore programStore(ServletContext ctx) {
+        String dir = ctx.getInitParameter("sengine.store.dir");
+        if (dir == null || dir.isBlank()) return ProgramStore.get();
+
+        int hot = ProgramStore.DEFAULT_HOT_PROGRAMS;
+        String hotParam = ctx.getInitParameter("sengine.store.hot");
+        if (hotParam != null && !hotParam.isBlank()) hot = Math.max(1, Integer.parseInt(hotParam.trim()));
+        try {
+            ProgramStore store = ProgramStore.usePersistent(Path.of(dir), hot);
+            System.out.println("[Bootstrap] Programs persisted under " + dir);
+            return store;
+        } catch (IOException e) {
+            System.out.println("[Bootstrap] Cannot open program store " + dir + " (" + e.getMessage()
+                    + "), keeping programs in memory");
+            return ProgramStore.get();
+        }
+    }
+
+    /**
+     * Schema for validating uploads: the "sengine.xsd" context parameter if set, otherwise
+     * WEB-INF/S-Emulator-v2.xsd when it is deployed. Compiled once at startup.
+     */
+    private static Schema uploadSchema(ServletContext ctx) {
+        String path = ctx.getInitParameter("sengine.xsd");
+        if (path == null || path.isBlank()) path = ctx.getRealPath("/WEB-INF/S-Emulator-v2.xsd");
+        if (path == null) return null;
+        File xsd = new File(path);
+        if (!xsd.isFile()) return null;
+        Schema schema = ProgramParser.schema(xsd);
+        System.out.println("[Bootstrap] Validating uploads against " + xsd);
+        return schema;
+    }
+
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        if (runManager != null) runManager.shutdown();
+        try {
+            ProgramStore.get().close();
+        } catch (IOException e) {
+            System.out.println("[Bootstrap] Closing program store failed: " + e.getMessage());
+        }
     }
 }
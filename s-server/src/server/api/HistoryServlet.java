@@ -0,0 +1,101 @@
+package server.api;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+import server.core.EngineFacade;
+import server.core.SimpleJson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GET /api/history?userId=&programId=&degree=&from=&to=&offset=&limit=
+ * userId defaults to the logged-in user; from/to are epoch millis (to exclusive).
+ */
+@WebServlet(name = "HistoryServlet", urlPatterns = {"/api/history"})
+public class HistoryServlet extends HttpServlet {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1_000;
+
+    private EngineFacade facade() {
+        Object f = getServletContext().getAttribute("facade");
+        return (f instanceof EngineFacade ef) ? ef : null;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        String userId = param(req, "userId");
+        if (userId == null) {
+            HttpSession session = req.getSession(false);
+            Object uid = (session == null) ? null : session.getAttribute("userId");
+            if (uid != null) userId = String.valueOf(uid);
+        }
+        String programId = param(req, "programId");
+
+        EngineFacade.HistoryQuery q;
+        try {
+            Long degree = longParam(req, "degree");
+            Long offset = longParam(req, "offset");
+            Long limit = longParam(req, "limit");
+            q = new EngineFacade.HistoryQuery(userId, programId,
+                    degree == null ? null : Math.toIntExact(degree),
+                    longParam(req, "from"), longParam(req, "to"),
+                    offset == null ? 0 : (int) Math.min(offset, Integer.MAX_VALUE),
+                    limit == null ? DEFAULT_LIMIT : (int) Math.min(limit, MAX_LIMIT));
+        } catch (NumberFormatException | ArithmeticException ex) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", "numeric parameter expected"));
+            return;
+        }
+        if (userId == null && programId == null) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", "userId or programId is required"));
+            return;
+        }
+
+        try {
+            EngineFacade.HistoryPage page = facade().history(q);
+
+            List<Map<String, Object>> rows = new ArrayList<>(page.rows().size());
+            for (EngineFacade.HistoryRow r : page.rows()) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("runNo", r.runNo());
+                m.put("programId", r.programId());
+                m.put("degree", r.degree());
+                m.put("inputs", r.inputs());
+                m.put("y", r.y());
+                m.put("cycles", r.cycles());
+                m.put("timestamp", r.timestamp());
+                rows.add(m);
+            }
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("total", page.total());
+            out.put("offset", q.offset());
+            out.put("rows", rows);
+            SimpleJson.write(resp.getWriter(), out);
+        } catch (Exception ex) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", String.valueOf(ex.getMessage())));
+        }
+    }
+
+    private static String param(HttpServletRequest req, String name) {
+        String v = req.getParameter(name);
+        return (v == null || v.isBlank()) ? null : v.trim();
+    }
+
+    private static Long longParam(HttpServletRequest req, String name) {
+        String v = param(req, name);
+        return (v == null) ? null : Long.parseLong(v);
+    }
+}
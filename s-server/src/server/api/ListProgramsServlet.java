@@ -5,6 +5,7 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
+import server.core.EngineFacade;
 import server.core.ProgramInfo;
 import server.core.ProgramStore;
 
@@ -35,6 +36,17 @@ public class ListProgramsServlet extends HttpServlet {
                 if (j > 0) sb.append(',');
                 sb.append("\"").append(esc(p.functions().get(j))).append("\"");
             }
+            sb.append("],\"expansion\":[");
+            for (int j = 0; j < p.estimates().size(); j++) {
+                EngineFacade.ExpansionEstimate e = p.estimates().get(j);
+                if (j > 0) sb.append(',');
+                sb.append("{")
+                        .append("\"degree\":").append(e.degree()).append(",")
+                        .append("\"instructions\":").append(e.instructions()).append(",")
+                        .append("\"cycles\":").append(e.cycles()).append(",")
+                        .append("\"fits\":").append(e.fits())
+                        .append("}");
+            }
             sb.append("]}");
         }
         sb.append("]}");
@@ -8,7 +8,6 @@ import server.core.EngineFacade;
 import server.core.SimpleJson;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,23 +39,38 @@ public class ProgramExpandServlet extends HttpServlet {
         }
 
         try {
-            List<EngineFacade.TraceRow> rows = facade(req).expand(programId, function, degree);
+            EngineFacade.ExpansionEstimate est = facade(req).estimate(programId, function, degree);
+            Map<String, Object> estJson = new LinkedHashMap<>();
+            estJson.put("degree",       est.degree());
+            estJson.put("instructions", est.instructions());
+            estJson.put("cycles",       est.cycles());
 
-            List<Map<String, Object>> rowsJson = new ArrayList<>();
-            for (EngineFacade.TraceRow r : rows) {
-                rowsJson.add(Map.of(
-                        "index",  r.index(),
-                        "type",   r.type(),
-                        "label",  r.label(),
-                        "instr",  r.instr(),
-                        "cycles", r.cycles()
-                ));
+            if (!est.fits()) {
+                resp.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                Map<String, Object> out = new LinkedHashMap<>();
+                out.put("error",    "expansion too large: " + est.instructions() + " instructions");
+                out.put("estimate", estJson);
+                SimpleJson.write(resp.getWriter(), out);
+                return;
             }
 
+            List<EngineFacade.TraceRow> rows = facade(req).expand(programId, function, degree);
+
+            // mapped lazily so SimpleJson streams the rows instead of holding them all
+            Iterable<Map<String, Object>> rowsJson = () -> rows.stream()
+                    .map(r -> Map.<String, Object>of(
+                            "index",  r.index(),
+                            "type",   r.type(),
+                            "label",  r.label(),
+                            "instr",  r.instr(),
+                            "cycles", r.cycles()
+                    )).iterator();
+
             Map<String, Object> out = new LinkedHashMap<>();
             out.put("programId", programId);
             out.put("function",  function);
             out.put("degree",    degree);
+            out.put("estimate",  estJson);
             out.put("rows",      rowsJson);
 
             SimpleJson.write(resp.getWriter(), out);
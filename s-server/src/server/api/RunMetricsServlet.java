@@ -0,0 +1,40 @@
+package server.api;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import server.core.EngineFacade;
+import server.core.SimpleJson;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** GET /api/runs/metrics: current engine load and admission totals since startup. */
+@WebServlet(name = "RunMetricsServlet", urlPatterns = {"/api/runs/metrics"})
+public class RunMetricsServlet extends HttpServlet {
+
+    private EngineFacade facade() {
+        Object f = getServletContext().getAttribute("facade");
+        return (f instanceof EngineFacade ef) ? ef : null;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        EngineFacade.RunMetrics m = facade().runMetrics();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("running", m.running());
+        out.put("queued", m.queued());
+        out.put("jobs", m.jobs());
+        out.put("admitted", m.admitted());
+        out.put("rejected", m.rejected());
+        out.put("avgWaitMillis", m.avgWaitMillis());
+        out.put("maxWaitMillis", m.maxWaitMillis());
+        out.put("avgRunMillis", m.avgRunMillis());
+        SimpleJson.write(resp.getWriter(), out);
+    }
+}
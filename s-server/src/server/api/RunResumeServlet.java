@@ -5,6 +5,7 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import server.core.EngineFacade;
+import server.core.RunManager;
 import server.core.SimpleJson;
 
 import java.io.IOException;
@@ -28,7 +29,13 @@ public class RunResumeServlet extends HttpServlet {
         resp.setContentType("application/json; charset=UTF-8");
 
         String runId = req.getParameter("runId");
-        EngineFacade.DebugState st = facade().resume(runId);
+        EngineFacade.DebugState st;
+        try {
+            st = facade().resume(runId);
+        } catch (RunManager.BusyException ex) {
+            StartRunServlet.tooBusy(resp, ex);
+            return;
+        }
 
         Map<String, Object> current = null;
         if (st.current() != null) {
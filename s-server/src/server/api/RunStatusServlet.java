@@ -11,7 +11,7 @@ import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-@WebServlet(name = "RunStatusServlet", urlPatterns = {"/api/debug/status"})
+@WebServlet(name = "RunStatusServlet", urlPatterns = {"/api/debug/status", "/api/runs/status"})
 public class RunStatusServlet extends HttpServlet {
 
     private EngineFacade facade() {
@@ -28,6 +28,11 @@ public class RunStatusServlet extends HttpServlet {
         resp.setContentType("application/json; charset=UTF-8");
 
         String runId = req.getParameter("runId");
+        EngineFacade.JobStatus job = facade().jobStatus(runId);
+        if (job != null) {
+            SimpleJson.write(resp.getWriter(), StartRunServlet.jobJson(job));
+            return;
+        }
         EngineFacade.DebugState st = facade().status(runId);
 
         Map<String, Object> current = null;
@@ -11,7 +11,7 @@ import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-@WebServlet(name = "RunStopServlet", urlPatterns = {"/api/debug/stop"})
+@WebServlet(name = "RunStopServlet", urlPatterns = {"/api/debug/stop", "/api/runs/stop"})
 public class RunStopServlet extends HttpServlet {
 
     private EngineFacade facade() {
@@ -28,6 +28,11 @@ public class RunStopServlet extends HttpServlet {
         resp.setContentType("application/json; charset=UTF-8");
 
         String runId = req.getParameter("runId");
+        EngineFacade.JobStatus job = facade().cancelRun(runId);
+        if (job != null) {
+            SimpleJson.write(resp.getWriter(), StartRunServlet.jobJson(job));
+            return;
+        }
         EngineFacade.DebugState st = facade().stop(runId);
 
         Map<String, Object> current = null;
@@ -1,6 +1,7 @@
 package server.api;
 
 import server.core.EngineFacade;
+import server.core.RunManager;
 import server.core.SimpleJson;
 
 import jakarta.servlet.annotation.WebServlet;
@@ -9,6 +10,11 @@ import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Runs a program and answers with its result. With "async" set the run is queued instead and the
+ * response (202) carries its runId; poll it with /api/runs/status and cancel it with /api/runs/stop.
+ * When the server is saturated the answer is 429 with a Retry-After header.
+ */
 @WebServlet(urlPatterns = {"/api/runs", "/api/runs/start"})
 
 public class StartRunServlet extends HttpServlet {
@@ -39,6 +45,7 @@ public class StartRunServlet extends HttpServlet {
 
             body.put("programId", req.getParameter("programId"));
             body.put("function", req.getParameter("function"));
+            body.put("async", req.getParameter("async"));
 
             String degreeStr = req.getParameter("degree");
             if (degreeStr != null && !degreeStr.isBlank()) {
@@ -86,6 +93,7 @@ public class StartRunServlet extends HttpServlet {
         }
 
         String arch = body.get("architecture") == null ? "Basic" : String.valueOf(body.get("architecture"));
+        boolean async = Boolean.parseBoolean(String.valueOf(body.get("async")));
 
         @SuppressWarnings("unchecked")
         java.util.List<Object> rawInputs = (java.util.List<Object>) body.getOrDefault("inputs", java.util.List.of());
@@ -105,30 +113,60 @@ public class StartRunServlet extends HttpServlet {
         }
 
         try {
+            if (async) {
+                var job = facade().submitRun(userId, programId, function, inputs, degree, arch);
+                resp.setStatus(202);
+                SimpleJson.write(resp.getWriter(), jobJson(job));
+                return;
+            }
             var rr = facade().run(userId, programId, function, inputs, degree, arch);
+            SimpleJson.write(resp.getWriter(), resultJson(rr));
+        } catch (RunManager.BusyException ex) {
+            tooBusy(resp, ex);
+        } catch (Exception ex) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), java.util.Map.of("error", ex.getMessage()));
+        }
+    }
 
-            java.util.Map<String, Object> out = new java.util.LinkedHashMap<>();
-            out.put("runId", rr.runId());
-            out.put("y", rr.y());
-            out.put("cycles", rr.cycles());
-            out.put("variables", rr.variables());
+    static void tooBusy(HttpServletResponse resp, RunManager.BusyException ex) throws IOException {
+        resp.setStatus(429);
+        resp.setHeader("Retry-After", String.valueOf(ex.retryAfterSeconds()));
+        java.util.Map<String, Object> out = new java.util.LinkedHashMap<>();
+        out.put("error", ex.getMessage());
+        out.put("retryAfter", ex.retryAfterSeconds());
+        SimpleJson.write(resp.getWriter(), out);
+    }
 
-            java.util.List<java.util.Map<String, Object>> trace = new java.util.ArrayList<>();
-            for (var t : rr.trace()) {
-                trace.add(java.util.Map.of(
+    static java.util.Map<String, Object> resultJson(EngineFacade.RunResult rr) {
+        java.util.Map<String, Object> out = new java.util.LinkedHashMap<>();
+        out.put("runId", rr.runId());
+        out.put("y", rr.y());
+        out.put("cycles", rr.cycles());
+        out.put("variables", rr.variables());
+        out.put("outOfCredits", rr.outOfCredits());
+
+        // mapped lazily so SimpleJson streams the rows instead of holding them all
+        Iterable<java.util.Map<String, Object>> trace = () -> rr.trace().stream()
+                .map(t -> java.util.Map.<String, Object>of(
                         "index", t.index(),
                         "type", t.type(),
                         "label", t.label(),
                         "instr", t.instr(),
                         "cycles", t.cycles()
-                ));
-            }
-            out.put("trace", trace);
+                )).iterator();
+        out.put("trace", trace);
+        return out;
+    }
 
-            SimpleJson.write(resp.getWriter(), out);
-        } catch (Exception ex) {
-            resp.setStatus(400);
-            SimpleJson.write(resp.getWriter(), java.util.Map.of("error", ex.getMessage()));
-        }
+    static java.util.Map<String, Object> jobJson(EngineFacade.JobStatus job) {
+        java.util.Map<String, Object> out = new java.util.LinkedHashMap<>();
+        out.put("runId", job.runId());
+        out.put("state", job.state());
+        out.put("pc", job.pc());
+        out.put("cycles", job.cycles());
+        if (job.result() != null) out.put("result", resultJson(job.result()));
+        if (job.error() != null) out.put("error", job.error());
+        return out;
     }
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+package server.api;
+
+import server.core.EngineFacade;
+import server.core.RunManager;
+import server.core.SimpleJson;
+
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * POST /api/runs/sweep with a JSON body
+ * {"programId": "...", "degree": 0, "ranges": [[0, 1000], [0, 50]]}
+ * where ranges are inclusive and give x1, x2, ... Ranges may also be written as "0..1000".
+ *
+ * The response is streamed as chunks complete, in no particular order:
+ * {"dims": [1001, 51], "points": 51051, "chunks": [{"first": 0, "y": [...], "cycles": [...]}, ...], "done": true}
+ * Grid point k has x_last varying fastest. Chunks with runs stopped for lack of credits carry an
+ * "outOfCredits" list of offsets within the chunk.
+ */
+@WebServlet(urlPatterns = {"/api/runs/sweep"})
+public class SweepServlet extends HttpServlet {
+
+    private EngineFacade facade() {
+        Object f = getServletContext().getAttribute("facade");
+        return (f instanceof EngineFacade ef) ? ef : null;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("application/json; charset=UTF-8");
+
+        Map<String, Object> body = SimpleJson.parse(req.getReader().lines().collect(Collectors.joining()));
+
+        String userId = body.get("userId") == null ? null : String.valueOf(body.get("userId"));
+        if (userId == null) {
+            HttpSession session = req.getSession(false);
+            Object uid = (session == null) ? null : session.getAttribute("userId");
+            if (uid != null) userId = String.valueOf(uid);
+        }
+        String programId = body.get("programId") == null ? null : String.valueOf(body.get("programId"));
+        String function = body.get("function") == null ? "(main)" : String.valueOf(body.get("function"));
+
+        if (programId == null || programId.isBlank()) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", "programId is required"));
+            return;
+        }
+
+        int degree;
+        List<EngineFacade.SweepRange> ranges;
+        try {
+            Object d = body.get("degree");
+            degree = (d instanceof Number n) ? n.intValue() : (d == null ? 0 : Integer.parseInt(d.toString().trim()));
+            ranges = ranges(body.get("ranges"));
+        } catch (IllegalArgumentException ex) {
+            resp.setStatus(400);
+            SimpleJson.write(resp.getWriter(), Map.of("error", "ranges must be a list of [from, to] pairs"));
+            return;
+        }
+
+        PrintWriter w = resp.getWriter();
+        Stream out = new Stream(w, ranges);
+        try {
+            facade().sweep(userId, programId, function, degree, ranges, out);
+        } catch (RunManager.BusyException ex) {
+            StartRunServlet.tooBusy(resp, ex); // turned away before any chunk was written
+            return;
+        } catch (Exception ex) {
+            String msg = String.valueOf(ex.getMessage());
+            synchronized (out) {
+                if (!out.started) {
+                    resp.setStatus(400);
+                    SimpleJson.write(w, Map.of("error", msg));
+                    return;
+                }
+                w.write("],\"error\":");
+                SimpleJson.write(w, msg);
+                w.write("}");
+            }
+            return;
+        }
+        synchronized (out) {
+            out.start();
+            w.write("],\"done\":true}");
+        }
+    }
+
+    /** Writes each chunk as it arrives; the header goes out with the first one. */
+    private static final class Stream implements EngineFacade.SweepSink {
+        private final PrintWriter w;
+        private final List<EngineFacade.SweepRange> ranges;
+        boolean started;
+        private boolean first = true;
+
+        Stream(PrintWriter w, List<EngineFacade.SweepRange> ranges) {
+            this.w = w;
+            this.ranges = ranges;
+        }
+
+        void start() {
+            if (started) return;
+            started = true;
+            StringBuilder sb = new StringBuilder("{\"dims\":[");
+            long points = 1;
+            for (int i = 0; i < ranges.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(ranges.get(i).size());
+                points *= ranges.get(i).size();
+            }
+            sb.append("],\"points\":").append(points).append(",\"chunks\":[");
+            w.write(sb.toString());
+        }
+
+        @Override
+        public void accept(long firstPoint, int[] y, int[] cycles, boolean[] outOfCredits) {
+            StringBuilder sb = new StringBuilder(16 * y.length + 64);
+            sb.append("{\"first\":").append(firstPoint).append(",\"y\":[");
+            for (int i = 0; i < y.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(y[i]);
+            }
+            sb.append("],\"cycles\":[");
+            for (int i = 0; i < cycles.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(cycles[i]);
+            }
+            sb.append(']');
+            StringBuilder stopped = new StringBuilder();
+            for (int i = 0; i < outOfCredits.length; i++) {
+                if (!outOfCredits[i]) continue;
+                if (stopped.length() > 0) stopped.append(',');
+                stopped.append(i);
+            }
+            if (stopped.length() > 0) sb.append(",\"outOfCredits\":[").append(stopped).append(']');
+            sb.append('}');
+
+            synchronized (this) {
+                start();
+                if (!first) w.write(',');
+                first = false;
+                w.write(sb.toString());
+                w.flush();
+            }
+        }
+    }
+
+    private static List<EngineFacade.SweepRange> ranges(Object raw) {
+        if (!(raw instanceof List<?> list) || list.isEmpty()) throw new IllegalArgumentException("ranges");
+        List<EngineFacade.SweepRange> out = new ArrayList<>(list.size());
+        for (Object r : list) {
+            if (r instanceof List<?> pair && pair.size() == 2) {
+                out.add(new EngineFacade.SweepRange(toInt(pair.get(0)), toInt(pair.get(1))));
+            } else if (r instanceof String s && s.contains("..")) {
+                int dots = s.indexOf("..");
+                out.add(new EngineFacade.SweepRange(toInt(s.substring(0, dots)), toInt(s.substring(dots + 2))));
+            } else {
+                throw new IllegalArgumentException("ranges");
+            }
+        }
+        return out;
+    }
+
+    private static int toInt(Object o) {
+        if (o instanceof Number n) return n.intValue();
+        if (o == null) throw new IllegalArgumentException("ranges");
+        return Integer.parseInt(o.toString().trim());
+    }
+}
@@ -12,11 +12,8 @@ import jakarta.servlet.http.Part;
 import server.core.EngineFacade;
 import server.core.ProgramInfo;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 
 @WebServlet(name = "UploadProgramServlet", urlPatterns = {"/api/programs/upload"})
 @MultipartConfig
@@ -31,9 +28,8 @@ public class UploadProgramServlet extends HttpServlet {
         resp.setCharacterEncoding("UTF-8");
         resp.setContentType("application/json");
 
-        try {
-            String xml = readXmlFromRequest(req);
-            if (xml == null || xml.isBlank()) {
+        try (InputStream xml = openXml(req)) {
+            if (xml == null) {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 resp.getWriter().write("{\"ok\":false,\"error\":\"Missing XML\"}");
                 return;
@@ -65,22 +61,16 @@ public class UploadProgramServlet extends HttpServlet {
         }
     }
 
-    private static String readXmlFromRequest(HttpServletRequest req) throws Exception {
+    /** The uploaded document as a stream (multipart "file" part or the raw body), or null when empty. */
+    private static InputStream openXml(HttpServletRequest req) throws Exception {
         String ct = req.getContentType();
         if (ct != null && ct.toLowerCase().contains("multipart/")) {
             Part part = req.getPart("file");
-            if (part == null) return null;
-            try (InputStream in = part.getInputStream()) {
-                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
-            }
-        }
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(req.getInputStream(), StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line).append('\n');
-            return sb.toString();
+            if (part == null || part.getSize() == 0) return null;
+            return part.getInputStream();
         }
+        if (req.getContentLengthLong() == 0) return null;
+        return req.getInputStream();
     }
 
     private static String esc(String s) {
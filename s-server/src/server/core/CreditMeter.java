@@ -0,0 +1,59 @@
+package server.core;
+
+import sengine.Runner;
+
+/**
+ * Charges a user one credit per cycle. Credits are debited a batch at a time as the run asks for
+ * more cycles, starting with a reservation when the run begins; {@link #settle} refunds whatever
+ * the run did not use.
+ */
+final class CreditMeter implements Runner.CycleMeter {
+
+    static final int DEFAULT_BATCH = 1_000;
+
+    private final User user;
+    private final int batch;
+    private long debited;
+    private boolean reservationGranted;
+
+    private CreditMeter(User user, int batch) {
+        this.user = user;
+        this.batch = batch;
+    }
+
+    /** Reserves the first batch; fails when the user has no credits left. */
+    static CreditMeter reserve(User user, int batch) {
+        CreditMeter m = tryReserve(user, batch);
+        if (m == null) throw new IllegalStateException("Not enough credits");
+        return m;
+    }
+
+    /** Reserves the first batch, or returns null when the user has no credits left. */
+    static CreditMeter tryReserve(User user, int batch) {
+        if (batch < 1) throw new IllegalArgumentException("batch must be at least 1");
+        CreditMeter m = new CreditMeter(user, batch);
+        return (m.take() == 0) ? null : m;
+    }
+
+    @Override
+    public long grant(long usedSoFar) {
+        if (!reservationGranted) {
+            reservationGranted = true;
+            return debited;
+        }
+        return take();
+    }
+
+    /** Refunds the credits debited beyond {@code usedCycles} and returns the amount charged. */
+    long settle(long usedCycles) {
+        long refund = debited - Math.min(debited, Math.max(0, usedCycles));
+        if (refund > 0) user.addCredits((int) refund);
+        return debited - refund;
+    }
+
+    private int take() {
+        int got = user.debitUpTo(batch);
+        debited += got;
+        return got;
+    }
+}
@@ -1,15 +1,38 @@
 package server.core;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
 public interface EngineFacade {
     ProgramInfo loadProgram(String xmlText);
+    ProgramInfo loadProgram(InputStream xml);
     List<TraceRow> expand(String programId, String function, int degree);
+    ExpansionEstimate estimate(String programId, String function, int degree);
 
     RunResult run(String userId, String programId, String function,
                   List<Integer> inputs, int degree, String architecture);
 
+    /** Queues the run on the job pool and returns at once; poll it with {@link #jobStatus}. */
+    JobStatus submitRun(String userId, String programId, String function,
+                        List<Integer> inputs, int degree, String architecture);
+    /** Null when there is no such job, or it finished too long ago. */
+    JobStatus jobStatus(String jobId);
+    /** Cancels the job; null when there is no such job. */
+    JobStatus cancelRun(String jobId);
+
+    /** Runs the program once per input vector; results are in input order. */
+    List<BatchResult> runBatch(String userId, String programId, String function,
+                               List<List<Integer>> inputs, int degree, String architecture);
+
+    /**
+     * Runs the program at every point of the grid spanned by {@code ranges} (one per input, x1 first),
+     * in row-major order with the last input varying fastest. Results go to {@code sink} in chunks as
+     * they complete, possibly from several threads and out of order.
+     */
+    void sweep(String userId, String programId, String function, int degree,
+               List<SweepRange> ranges, SweepSink sink);
+
     DebugSession startDebug(String userId, String programId, String function,
                             List<Integer> inputs, int degree, String architecture);
     DebugState status(String runId);
@@ -17,17 +40,59 @@ public interface EngineFacade {
     DebugState resume(String runId);
     DebugState stop(String runId);
 
+    RunMetrics runMetrics();
+
     CreditsState getCredits(String userId);
     CreditsState chargeCredits(String userId, int amount);
 
     List<HistoryRow> history(String userId);
+    HistoryPage history(HistoryQuery query);
 
     record TraceRow(int index, String type, String label, String instr, int cycles) {}
+    record ExpansionEstimate(int degree, long instructions, long cycles, boolean fits) {}
+    /** {@code outOfCredits} marks a run stopped early because the user's credits ran out. */
     record RunResult(String runId, int y, int cycles,
-                     Map<String,Integer> variables, List<TraceRow> trace) {}
+                     Map<String,Integer> variables, List<TraceRow> trace, boolean outOfCredits) {}
+    record BatchResult(int y, int cycles, boolean outOfCredits) {}
+    /**
+     * {@code state} is QUEUED, RUNNING, DONE, FAILED or CANCELLED. {@code pc} and {@code cycles} track
+     * a running job; {@code result} is set once it is DONE, or CANCELLED after it started.
+     */
+    record JobStatus(String runId, String state, int pc, long cycles, RunResult result, String error) {}
+    /** Inclusive input range. */
+    record SweepRange(int from, int to) {
+        public int size() { return to - from + 1; }
+    }
+    interface SweepSink {
+        /** Results for grid points {@code first .. first + y.length - 1}. */
+        void accept(long first, int[] y, int[] cycles, boolean[] outOfCredits);
+    }
+    /**
+     * Engine load: runs holding a permit, callers waiting for one, jobs queued or running, and
+     * since startup the runs admitted and turned away, with their wait and run times.
+     */
+    record RunMetrics(int running, int queued, int jobs, long admitted, long rejected,
+                      double avgWaitMillis, double maxWaitMillis, double avgRunMillis) {}
     record DebugSession(String runId, DebugState state) {}
     record DebugState(String runId, int pc, int cycles, boolean halted,
                       Map<String,Integer> variables, TraceRow current) {}
     record CreditsState(String userId, int credits) {}
-    record HistoryRow(int runNo, int degree, String inputs, int y, int cycles, long timestamp) {}
+    record HistoryRow(int runNo, String programId, int degree, String inputs, int y, int cycles, long timestamp) {}
+
+    /** Filters left null match everything; {@code from} is inclusive and {@code to} exclusive. */
+    record HistoryQuery(String userId, String programId, Integer degree, Long from, Long to,
+                        int offset, int limit) {
+        public HistoryQuery {
+            offset = Math.max(0, offset);
+            limit = Math.max(0, limit);
+        }
+
+        public boolean matches(String rowProgram, int rowDegree, long rowTimestamp) {
+            return (programId == null || programId.equals(rowProgram))
+                    && (degree == null || degree == rowDegree)
+                    && (from == null || rowTimestamp >= from)
+                    && (to == null || rowTimestamp < to);
+        }
+    }
+    record HistoryPage(long total, List<HistoryRow> rows) {}
 }
@@ -2,56 +2,67 @@ package server.core;
 
 import sengine.Debugger;
 import sengine.Instruction;
+import sengine.LockstepRunner;
 import sengine.Program;
 import sengine.ProgramParser;
 import sengine.Runner;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import javax.xml.validation.Schema;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.util.*;
 
 public final class EngineFacadeImpl implements EngineFacade {
 
+    /** Upper bound on input vectors in one {@link #runBatch} call. */
+    public static final int MAX_BATCH_RUNS = 10_000;
+    /** Upper bound on grid points in one {@link #sweep} call. */
+    public static final long MAX_SWEEP_POINTS = 1_000_000;
+    /** Input vectors run together by one {@link LockstepRunner} call; groups run in parallel. */
+    static final int LOCKSTEP_LANES = 1_024;
+
     private final ProgramStore programs;
     private final UserStore users;
     private final RunManager runs;
+    private final Schema schema;
 
     public EngineFacadeImpl(ProgramStore programs, UserStore users, RunManager runs) {
+        this(programs, users, runs, null);
+    }
+
+    /** Uploaded programs are validated against {@code schema} while they are parsed; null skips validation. */
+    public EngineFacadeImpl(ProgramStore programs, UserStore users, RunManager runs, Schema schema) {
         this.programs = programs;
         this.users = users;
         this.runs = runs;
+        this.schema = schema;
     }
 
     @Override
     public ProgramInfo loadProgram(String xmlText) {
-        Program p = ProgramParser.parseFromXml(writeTempXml(xmlText));
-        String id = programs.put(p);
+        return store(ProgramParser.parseFromXml(new StringReader(xmlText == null ? "" : xmlText), schema));
+    }
 
-        List<String> functions = new ArrayList<>(p.functions.keySet());
-        String name = (p.name == null || p.name.isBlank()) ? "(unnamed)" : p.name;
+    @Override
+    public ProgramInfo loadProgram(InputStream xml) {
+        return store(ProgramParser.parseFromXml(xml, schema));
+    }
 
-        return new ProgramInfo(id, name, functions, p.maxDegree());
+    private ProgramInfo store(Program p) {
+        String id = programs.put(p);
+        return ProgramInfo.of(id, programs.get(id));
     }
 
     @Override
-    public List<TraceRow> expand(String programId, String function, int degree) {
+    public ExpansionEstimate estimate(String programId, String function, int degree) {
         Program p = requireProgram(programId);
-        Program.Rendered r = p.expandToDegree(degree);
+        return ProgramInfo.toEstimate(p.estimate(degree));
+    }
 
-        List<TraceRow> rows = new ArrayList<>(r.list.size());
-        int i = 1;
-        for (Instruction ins : r.list) {
-            rows.add(new TraceRow(
-                    i++,
-                    ins.prettyType(),
-                    safe(ins.label),
-                    safe(ins.text),
-                    Math.max(0, ins.cycles())
-            ));
-        }
-        return rows;
+    @Override
+    public List<TraceRow> expand(String programId, String function, int degree) {
+        Program p = requireProgram(programId);
+        return new TraceView(p.expandToDegree(degree));
     }
 
     @Override
@@ -60,29 +71,167 @@ public final class EngineFacadeImpl implements EngineFacade {
         Program p = requireProgram(programId);
         List<Integer> in = (inputs == null) ? List.of() : inputs;
 
-        Runner.RunResult rr = Runner.run(p, degree, in);
+        User payer = payer(userId);
+        Runner.RunResult rr = runs.withRunPermit(userId, () -> {
+            CreditMeter meter = (payer == null) ? null : CreditMeter.reserve(payer, CreditMeter.DEFAULT_BATCH);
+            return meteredRun(p, degree, in, meter, meter);
+        });
+        return toResult(userId, programId, p, degree, in, rr, rr.meterExhausted);
+    }
 
-        List<TraceRow> trace = new ArrayList<>(rr.rendered.list.size());
-        int i = 1;
-        for (Instruction ins : rr.rendered.list) {
-            trace.add(new TraceRow(
-                    i++,
-                    ins.prettyType(),
-                    safe(ins.label),
-                    safe(ins.text),
-                    Math.max(0, ins.cycles())
-            ));
+    @Override
+    public JobStatus submitRun(String userId, String programId, String function,
+                               List<Integer> inputs, int degree, String architecture) {
+        Program p = requireProgram(programId);
+        List<Integer> in = (inputs == null) ? List.of() : new ArrayList<>(inputs);
+
+        User payer = payer(userId);
+        CreditMeter credits = (payer == null) ? null : CreditMeter.reserve(payer, CreditMeter.DEFAULT_BATCH);
+        RunManager.Job job;
+        try {
+            job = runs.submitJob(userId, j -> {
+                Runner.RunResult rr = meteredRun(p, degree, in, credits, new JobMeter(j, credits));
+                if (j.cancelRequested()) {
+                    return toResult(null, programId, p, degree, in, rr, false);
+                }
+                return toResult(userId, programId, p, degree, in, rr, rr.meterExhausted);
+            });
+        } catch (IllegalStateException ex) {
+            if (credits != null) credits.settle(0);
+            throw ex;
         }
+        return toStatus(job);
+    }
+
+    @Override
+    public JobStatus jobStatus(String jobId) {
+        RunManager.Job job = runs.getJob(jobId);
+        return (job == null) ? null : toStatus(job);
+    }
+
+    @Override
+    public JobStatus cancelRun(String jobId) {
+        RunManager.Job job = runs.cancelJob(jobId);
+        return (job == null) ? null : toStatus(job);
+    }
+
+    /** Builds the response for a finished run, recording it in the history of {@code userId} if set. */
+    private RunResult toResult(String userId, String programId, Program p, int degree, List<Integer> in,
+                               Runner.RunResult rr, boolean outOfCredits) {
+        List<TraceRow> trace = new TraceView(p.expandToDegree(degree));
 
         if (userId != null && !userId.isBlank()) {
-            int runNo = runs.history(userId).size() + 1;
-            runs.addHistory(userId, new HistoryRow(
-                    runNo, Math.max(0, degree), inputsToString(in), rr.y, rr.cycles, System.currentTimeMillis()
-            ));
+            runs.addHistory(userId, programId, Math.max(0, degree), in, rr.y, rr.cycles, System.currentTimeMillis());
         }
 
         String runId = "run-" + UUID.randomUUID();
-        return new RunResult(runId, rr.y, rr.cycles, rr.variables, trace);
+        return new RunResult(runId, rr.y, rr.cycles, rr.variables, trace, outOfCredits);
+    }
+
+    private static JobStatus toStatus(RunManager.Job job) {
+        RunResult r = job.result();
+        long cycles = (r != null) ? r.cycles() : job.cycles();
+        return new JobStatus(job.id(), job.state().name(), job.pc(), cycles, r, job.error());
+    }
+
+    @Override
+    public List<BatchResult> runBatch(String userId, String programId, String function,
+                                      List<List<Integer>> inputs, int degree, String architecture) {
+        Program p = requireProgram(programId);
+        if (inputs == null || inputs.isEmpty()) return List.of();
+        if (inputs.size() > MAX_BATCH_RUNS) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_RUNS + " input vectors per batch");
+        }
+        p.executable(Math.max(0, Math.min(degree, p.maxDegree())));
+
+        User payer = payer(userId);
+        BatchResult[] out = new BatchResult[inputs.size()];
+        int groups = (out.length + LOCKSTEP_LANES - 1) / LOCKSTEP_LANES;
+        runs.forEachPermitted(userId, groups, g -> {
+            int from = g * LOCKSTEP_LANES;
+            List<List<Integer>> lanes = inputs.subList(from, Math.min(out.length, from + LOCKSTEP_LANES));
+            LockstepRunner.Result r = meteredGroup(p, degree, lanes, payer);
+            if (r == null) {
+                for (int i = 0; i < lanes.size(); i++) out[from + i] = new BatchResult(0, 0, true);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < lanes.size(); i++) {
+                if (payer != null) {
+                    List<Integer> in = (lanes.get(i) == null) ? List.of() : lanes.get(i);
+                    runs.addHistory(userId, programId, Math.max(0, degree), in, r.y[i], r.cycles[i], now);
+                }
+                out[from + i] = new BatchResult(r.y[i], r.cycles[i], r.meterExhausted[i]);
+            }
+        });
+        return Arrays.asList(out);
+    }
+
+    /** Sweeps are charged like batches but, given their size, are not recorded in the run history. */
+    @Override
+    public void sweep(String userId, String programId, String function, int degree,
+                      List<SweepRange> ranges, SweepSink sink) {
+        Program p = requireProgram(programId);
+        if (ranges == null || ranges.isEmpty()) throw new IllegalArgumentException("At least one input range is required");
+        long points = 1;
+        for (SweepRange r : ranges) {
+            if (r.from() < 0 || r.to() < r.from()) throw new IllegalArgumentException("Bad input range " + r.from() + ".." + r.to());
+            points *= r.size();
+            if (points > MAX_SWEEP_POINTS) {
+                throw new IllegalArgumentException("At most " + MAX_SWEEP_POINTS + " points per sweep");
+            }
+        }
+        p.executable(Math.max(0, Math.min(degree, p.maxDegree())));
+
+        User payer = payer(userId);
+        long total = points;
+        int groups = (int) ((total + LOCKSTEP_LANES - 1) / LOCKSTEP_LANES);
+        runs.forEachPermitted(userId, groups, g -> {
+            long first = (long) g * LOCKSTEP_LANES;
+            int n = (int) Math.min(LOCKSTEP_LANES, total - first);
+            List<List<Integer>> lanes = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) lanes.add(gridPoint(ranges, first + i));
+
+            LockstepRunner.Result r = meteredGroup(p, degree, lanes, payer);
+            if (r == null) {
+                boolean[] stopped = new boolean[n];
+                Arrays.fill(stopped, true);
+                sink.accept(first, new int[n], new int[n], stopped);
+            } else {
+                sink.accept(first, r.y, r.cycles, r.meterExhausted);
+            }
+        });
+    }
+
+    /** Inputs at grid index {@code k}, the last range varying fastest. */
+    private static List<Integer> gridPoint(List<SweepRange> ranges, long k) {
+        Integer[] xs = new Integer[ranges.size()];
+        for (int d = ranges.size() - 1; d >= 0; d--) {
+            SweepRange r = ranges.get(d);
+            xs[d] = r.from() + (int) (k % r.size());
+            k /= r.size();
+        }
+        return Arrays.asList(xs);
+    }
+
+    /**
+     * Runs a group of input vectors in lockstep, charged to {@code payer} when there is one.
+     * Returns null when the payer has no credits to reserve.
+     */
+    private static LockstepRunner.Result meteredGroup(Program p, int degree, List<List<Integer>> lanes, User payer) {
+        CreditMeter meter = (payer == null) ? null : CreditMeter.tryReserve(payer, CreditMeter.DEFAULT_BATCH);
+        if (payer != null && meter == null) return null;
+
+        LockstepRunner.Result r;
+        try {
+            r = LockstepRunner.run(p, degree, lanes, meter);
+        } catch (RuntimeException ex) {
+            if (meter != null) meter.settle(0);
+            throw ex;
+        }
+        if (meter != null) meter.settle(r.totalCycles());
+        return r;
     }
 
     @Override
@@ -90,45 +239,47 @@ public final class EngineFacadeImpl implements EngineFacade {
                                    List<Integer> inputs, int degree, String architecture) {
         Program p = requireProgram(programId);
         Debugger dbg = new Debugger(p, degree, inputs == null ? List.of() : inputs);
-        String runId = runs.registerDebugger(dbg);
+        String runId = runs.registerDebugger(programId, dbg);
         return new DebugSession(runId, toState(runId, dbg.rendered(), dbg.snapshot()));
     }
 
     @Override
     public DebugState status(String runId) {
-        Debugger dbg = runs.getDebugger(runId);
-        if (dbg == null) return new DebugState(runId, -1, 0, true, Map.of(), null);
-        return toState(runId, dbg.rendered(), dbg.snapshot());
+        DebugState st = runs.withDebugger(runId, dbg -> toState(runId, dbg.rendered(), dbg.snapshot()));
+        return (st != null) ? st : new DebugState(runId, -1, 0, true, Map.of(), null);
     }
 
     @Override
     public DebugState step(String runId) {
-        Debugger dbg = runs.getDebugger(runId);
-        if (dbg == null) return new DebugState(runId, -1, 0, true, Map.of(), null);
-        return toState(runId, dbg.rendered(), dbg.step());
+        DebugState st = runs.withDebugger(runId, dbg -> toState(runId, dbg.rendered(), dbg.step()));
+        return (st != null) ? st : new DebugState(runId, -1, 0, true, Map.of(), null);
     }
 
     @Override
     public DebugState resume(String runId) {
-        Debugger dbg = runs.getDebugger(runId);
-        if (dbg == null) return new DebugState(runId, -1, 0, true, Map.of(), null);
-
-        Debugger.Snapshot s = dbg.snapshot();
-        while (!s.halted) {
-            s = dbg.step();
-        }
-        return toState(runId, dbg.rendered(), s);
+        DebugState st = runs.withRunPermit(() -> runs.withDebugger(runId, dbg -> {
+            Debugger.Snapshot at = dbg.snapshot();
+            while (!at.halted) {
+                at = dbg.step();
+            }
+            return toState(runId, dbg.rendered(), at);
+        }));
+        return (st != null) ? st : new DebugState(runId, -1, 0, true, Map.of(), null);
     }
 
     @Override
     public DebugState stop(String runId) {
-        Debugger dbg = runs.getDebugger(runId);
-        if (dbg == null) return new DebugState(runId, -1, 0, true, Map.of(), null);
-        Debugger.Snapshot s = dbg.snapshot();
+        Debugger.Snapshot s = runs.withDebugger(runId, Debugger::snapshot);
+        if (s == null) return new DebugState(runId, -1, 0, true, Map.of(), null);
         runs.stop(runId);
         return new DebugState(runId, s.pc, s.cycles, true, s.vars, null);
     }
 
+    @Override
+    public RunMetrics runMetrics() {
+        return runs.runMetrics();
+    }
+
     @Override
     public CreditsState getCredits(String userId) {
         User u = users.getById(userId);
@@ -147,34 +298,94 @@ public final class EngineFacadeImpl implements EngineFacade {
         return runs.history(userId);
     }
 
-    private Program requireProgram(String id) {
-        Program p = programs.get(id);
-        if (p == null) throw new NoSuchElementException("program not found: " + id);
-        return p;
+    @Override
+    public HistoryPage history(HistoryQuery query) {
+        return runs.history(query);
     }
 
-    private static String inputsToString(List<Integer> inputs) {
-        if (inputs == null || inputs.isEmpty()) return "";
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < inputs.size(); i++) {
-            if (i > 0) sb.append(',');
-            sb.append(inputs.get(i));
+    private User payer(String userId) {
+        return (userId == null || userId.isBlank()) ? null : users.getById(userId);
+    }
+
+    /** Runs against {@code meter}, settling {@code credits} afterwards; unmetered when the meter is null. */
+    private static Runner.RunResult meteredRun(Program p, int degree, List<Integer> in,
+                                               CreditMeter credits, Runner.CycleMeter meter) {
+        Runner.RunResult rr;
+        try {
+            rr = Runner.run(p, degree, in, meter);
+        } catch (RuntimeException ex) {
+            if (credits != null) credits.settle(0);
+            throw ex;
         }
-        return sb.toString();
+        if (credits != null) credits.settle(rr.cycles);
+        return rr;
     }
 
-    private static String safe(String s) { return (s == null) ? "" : s; }
+    /**
+     * Trace rows of a cached rendering, made as they are read. Large expansions are streamed to the
+     * client from the rendering itself instead of being copied into a list of rows first.
+     */
+    private static final class TraceView extends AbstractList<TraceRow> implements RandomAccess {
+        private final List<Instruction> list;
 
-    private static File writeTempXml(String xml) {
-        try {
-            File f = File.createTempFile("program-", ".xml");
-            Files.writeString(f.toPath(), xml == null ? "" : xml, StandardCharsets.UTF_8);
-            return f;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        TraceView(Program.Rendered rendered) {
+            this.list = rendered.list;
+        }
+
+        @Override
+        public TraceRow get(int i) {
+            Instruction ins = list.get(i);
+            return new TraceRow(
+                    i + 1,
+                    ins.prettyType(),
+                    safe(ins.label),
+                    safe(ins.text),
+                    Math.max(0, ins.cycles())
+            );
+        }
+
+        @Override
+        public int size() {
+            return list.size();
         }
     }
 
+    /**
+     * Reports a job's progress each time its run asks for cycles and stops the run once the job is
+     * cancelled. Cycles come from {@code credits} when the user pays, otherwise in fixed slices.
+     */
+    private static final class JobMeter implements Runner.CycleMeter {
+        private static final long SLICE = 10_000;
+
+        private final RunManager.Job job;
+        private final CreditMeter credits;
+
+        JobMeter(RunManager.Job job, CreditMeter credits) {
+            this.job = job;
+            this.credits = credits;
+        }
+
+        @Override
+        public long grant(long usedSoFar) {
+            return grant(usedSoFar, job.pc());
+        }
+
+        @Override
+        public long grant(long usedSoFar, int pc) {
+            job.progress(usedSoFar, pc);
+            if (job.cancelRequested()) return 0;
+            return (credits == null) ? SLICE : credits.grant(usedSoFar);
+        }
+    }
+
+    private Program requireProgram(String id) {
+        Program p = programs.get(id);
+        if (p == null) throw new NoSuchElementException("program not found: " + id);
+        return p;
+    }
+
+    private static String safe(String s) { return (s == null) ? "" : s; }
+
     private static DebugState toState(String runId, Program.Rendered rendered, Debugger.Snapshot s) {
         TraceRow current = null;
         if (!s.halted && s.pc >= 0 && s.pc < rendered.list.size()) {
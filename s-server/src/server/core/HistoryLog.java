@@ -0,0 +1,277 @@
+package server.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only run history on disk.
+ *
+ * <pre>
+ * "SEMH" u32 version
+ * record: u32 length, then
+ *         i64 timestamp, i32 runNo, i32 degree, i32 y, i32 cycles,
+ *         u16 + UTF-8 user id, u16 + UTF-8 program id, i32 input count, i32 inputs...
+ * </pre>
+ *
+ * The log is scanned once on open to build per-user and per-program indexes: record offsets next
+ * to the columns queries filter on (time, degree, program). A query is answered from an index and
+ * reads only the records on the requested page. Appends are not forced to disk; a record torn by a
+ * crash is cut off on the next open.
+ */
+final class HistoryLog implements Closeable {
+
+    private static final int MAGIC = 0x53454D48; // "SEMH"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int FIXED_BYTES = 8 + 4 * 4 + 2 + 2 + 4;
+
+    /** Offsets and filter columns of one user's or one program's records, in append order. */
+    private static final class Postings {
+        long[] offset = new long[8];
+        int[] length = new int[8];
+        long[] timestamp = new long[8];
+        int[] degree = new int[8];
+        int[] program = new int[8];
+        int size;
+
+        long totalCycles;
+        int maxCycles;
+
+        void add(long off, int len, long ts, int deg, int prog, int cycles) {
+            if (size == offset.length) {
+                int n = size * 2;
+                offset = Arrays.copyOf(offset, n);
+                length = Arrays.copyOf(length, n);
+                timestamp = Arrays.copyOf(timestamp, n);
+                degree = Arrays.copyOf(degree, n);
+                program = Arrays.copyOf(program, n);
+            }
+            offset[size] = off;
+            length[size] = len;
+            timestamp[size] = ts;
+            degree[size] = deg;
+            program[size] = prog;
+            size++;
+            totalCycles += Math.max(0, cycles);
+            maxCycles = Math.max(maxCycles, cycles);
+        }
+    }
+
+    private final Path file;
+    private final FileChannel ch;
+    private final Map<String, Postings> byUser = new HashMap<>();
+    private final Map<String, Postings> byProgram = new HashMap<>();
+    private final Map<String, Integer> programOrdinal = new HashMap<>();
+    private long end;
+
+    private HistoryLog(Path file, FileChannel ch) {
+        this.file = file;
+        this.ch = ch;
+    }
+
+    static HistoryLog open(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        FileChannel ch = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        HistoryLog log = new HistoryLog(file, ch);
+        try {
+            log.load();
+        } catch (IOException | RuntimeException ex) {
+            ch.close();
+            throw ex;
+        }
+        return log;
+    }
+
+    /** Appends a run and returns its number within the user's history. */
+    synchronized int append(String userId, String programId, int degree, List<Integer> inputs,
+                            int y, int cycles, long timestamp) throws IOException {
+        Postings user = byUser.get(userId);
+        int runNo = (user == null) ? 1 : user.size + 1;
+
+        byte[] u = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] p = (programId == null ? "" : programId).getBytes(StandardCharsets.UTF_8);
+        if (u.length > 0xFFFF || p.length > 0xFFFF) throw new IllegalArgumentException("History id too long");
+        int n = (inputs == null) ? 0 : inputs.size();
+        int len = FIXED_BYTES + u.length + p.length + 4 * n;
+
+        ByteBuffer buf = ByteBuffer.allocate(4 + len);
+        buf.putInt(len);
+        buf.putLong(timestamp).putInt(runNo).putInt(degree).putInt(y).putInt(cycles);
+        buf.putShort((short) u.length).put(u);
+        buf.putShort((short) p.length).put(p);
+        buf.putInt(n);
+        for (int i = 0; i < n; i++) buf.putInt(inputs.get(i));
+        buf.flip();
+
+        long at = end;
+        while (buf.hasRemaining()) at += ch.write(buf, at);
+        index(userId, programId, end + 4, len, timestamp, degree, cycles);
+        end = at;
+        return runNo;
+    }
+
+    /** Matching records, oldest first; needs a user or a program to pick the index. */
+    EngineFacade.HistoryPage query(EngineFacade.HistoryQuery q) throws IOException {
+        long[] offsets;
+        int[] lengths;
+        int total = 0;
+        if (q.userId() == null && q.programId() == null) {
+            throw new IllegalArgumentException("History query needs a user or a program");
+        }
+        synchronized (this) {
+            Postings idx = (q.userId() != null) ? byUser.get(q.userId()) : byProgram.get(q.programId());
+            if (idx == null) return new EngineFacade.HistoryPage(0, List.of());
+
+            Integer prog = (q.programId() == null) ? null : programOrdinal.get(q.programId());
+            if (q.programId() != null && prog == null) return new EngineFacade.HistoryPage(0, List.of());
+
+            int limit = Math.max(0, q.limit());
+            offsets = new long[Math.min(limit, idx.size)];
+            lengths = new int[offsets.length];
+            int picked = 0;
+            for (int i = 0; i < idx.size; i++) {
+                if (prog != null && idx.program[i] != prog) continue;
+                if (q.degree() != null && idx.degree[i] != q.degree()) continue;
+                if (q.from() != null && idx.timestamp[i] < q.from()) continue;
+                if (q.to() != null && idx.timestamp[i] >= q.to()) continue;
+                if (total >= q.offset() && picked < offsets.length) {
+                    offsets[picked] = idx.offset[i];
+                    lengths[picked] = idx.length[i];
+                    picked++;
+                }
+                total++;
+            }
+            offsets = Arrays.copyOf(offsets, picked);
+        }
+
+        List<EngineFacade.HistoryRow> rows = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++) rows.add(readRow(offsets[i], lengths[i]));
+        return new EngineFacade.HistoryPage(total, rows);
+    }
+
+    synchronized RunManager.HistoryStats stats(String userId) {
+        Postings p = byUser.get(userId);
+        if (p == null) return new RunManager.HistoryStats(0, 0, 0, 0);
+        return new RunManager.HistoryStats(p.size, p.totalCycles, p.maxCycles, p.size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            ch.force(false);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private void index(String userId, String programId, long off, int len, long ts, int degree, int cycles) {
+        String prog = (programId == null) ? "" : programId;
+        int ord = programOrdinal.computeIfAbsent(prog, k -> programOrdinal.size());
+        byUser.computeIfAbsent(userId, k -> new Postings()).add(off, len, ts, degree, ord, cycles);
+        byProgram.computeIfAbsent(prog, k -> new Postings()).add(off, len, ts, degree, ord, cycles);
+    }
+
+    private EngineFacade.HistoryRow readRow(long off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        long pos = off;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("History log " + file + " is shorter than its index");
+            pos += n;
+        }
+        buf.flip();
+        long ts = buf.getLong();
+        int runNo = buf.getInt();
+        int degree = buf.getInt();
+        int y = buf.getInt();
+        int cycles = buf.getInt();
+        skipString(buf);
+        String program = string(buf);
+        int n = buf.getInt();
+        StringBuilder inputs = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) inputs.append(',');
+            inputs.append(buf.getInt());
+        }
+        return new EngineFacade.HistoryRow(runNo, program.isEmpty() ? null : program, degree,
+                inputs.toString(), y, cycles, ts);
+    }
+
+    /** Rebuilds the indexes from the log, cutting off a torn record at the tail. */
+    private void load() throws IOException {
+        long size = ch.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) ch.write(header, header.position());
+            end = HEADER_BYTES;
+            return;
+        }
+        if (size < HEADER_BYTES) throw new IOException("Corrupt history log " + file);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch.position(0)), 1 << 16));
+        if (in.readInt() != MAGIC) throw new IOException("Not a history log: " + file);
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported history log version: " + version);
+
+        long pos = HEADER_BYTES;
+        while (size - pos >= 4) {
+            try {
+                int len = in.readInt();
+                if (len < FIXED_BYTES || len > size - pos - 4) break;
+                long ts = in.readLong();
+                in.readInt();
+                int degree = in.readInt();
+                in.readInt();
+                int cycles = in.readInt();
+                byte[] user = bytes(in);
+                byte[] program = bytes(in);
+                int n = in.readInt();
+                if (len != FIXED_BYTES + user.length + program.length + 4L * n) break;
+                in.skipNBytes(4L * n);
+                index(new String(user, StandardCharsets.UTF_8),
+                        program.length == 0 ? null : new String(program, StandardCharsets.UTF_8),
+                        pos + 4, len, ts, degree, cycles);
+                pos += 4 + len;
+            } catch (EOFException ex) {
+                break;
+            }
+        }
+        end = pos;
+        if (end < size) ch.truncate(end);
+    }
+
+    private static byte[] bytes(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readUnsignedShort()];
+        in.readFully(b);
+        return b;
+    }
+
+    private static String string(ByteBuffer buf) {
+        byte[] b = new byte[buf.getShort() & 0xFFFF];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buf) {
+        int n = buf.getShort() & 0xFFFF;
+        buf.position(buf.position() + n);
+    }
+}
@@ -1,5 +1,8 @@
 package server.core;
 
+import sengine.Program;
+
+import java.util.ArrayList;
 import java.util.List;
 
 public class ProgramInfo {
@@ -7,16 +10,49 @@ public class ProgramInfo {
     public final String name;
     public final List<String> functions;
     public final int maxDegree;
+    public final List<EngineFacade.ExpansionEstimate> estimates;
 
     public ProgramInfo(String id, String name, List<String> functions, int maxDegree) {
+        this(id, name, functions, maxDegree, List.of());
+    }
+
+    public ProgramInfo(String id, String name, List<String> functions, int maxDegree,
+                       List<EngineFacade.ExpansionEstimate> estimates) {
         this.id = id;
         this.name = name;
         this.functions = functions;
         this.maxDegree = maxDegree;
+        this.estimates = estimates;
+    }
+
+    public static ProgramInfo of(String id, Program p) {
+        return of(id, p.name, new ArrayList<>(p.functions.keySet()), p.maxDegree(), estimatesOf(p));
+    }
+
+    /** The program's expansion estimates, or none when they cannot be computed. */
+    static List<Program.Estimate> estimatesOf(Program p) {
+        try {
+            return p.estimates();
+        } catch (RuntimeException ex) {
+            return List.of();
+        }
+    }
+
+    static ProgramInfo of(String id, String name, List<String> functions, int maxDegree,
+                          List<Program.Estimate> estimates) {
+        List<EngineFacade.ExpansionEstimate> out = new ArrayList<>(estimates.size());
+        for (Program.Estimate e : estimates) out.add(toEstimate(e));
+        return new ProgramInfo(id, (name == null || name.isBlank()) ? "(unnamed)" : name, functions, maxDegree, out);
+    }
+
+    static EngineFacade.ExpansionEstimate toEstimate(Program.Estimate e) {
+        return new EngineFacade.ExpansionEstimate(e.degree, e.instructions, e.cycles,
+                e.degree == 0 || e.instructions <= Program.MAX_EXPANDED_INSTRUCTIONS);
     }
 
     public String id() { return id; }
     public String name() { return name; }
     public List<String> functions() { return functions; }
     public int maxDegree() { return maxDegree; }
+    public List<EngineFacade.ExpansionEstimate> estimates() { return estimates; }
 }
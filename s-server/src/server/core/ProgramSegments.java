@@ -0,0 +1,263 @@
+package server.core;
+
+import sengine.Program;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Disk side of a persistent {@link ProgramStore}.
+ *
+ * Encoded programs are appended to segment files ({@code segment-00000.dat}, ...), each capped at
+ * {@link #SEGMENT_LIMIT}. {@code index.dat} is append-only too: one entry per program with its id,
+ * position and what a program listing shows (name, functions, max degree, expansion estimates). It is
+ * memory-mapped and scanned when the store opens, so only the index is read at startup and listing
+ * needs nothing else; program bytes are read when a program is first requested.
+ */
+final class ProgramSegments implements Closeable {
+
+    static final long SEGMENT_LIMIT = 64L << 20;
+    private static final int INDEX_MAGIC = 0x53454D49; // "SEMI"
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int ID_BYTES = 32;
+
+    /** What a listing shows about a stored program, taken when it is appended. */
+    record Meta(String name, List<String> functions, int maxDegree, List<Program.Estimate> estimates) {
+
+        static Meta of(Program p) {
+            return new Meta(p.name, new ArrayList<>(p.functions.keySet()), p.maxDegree(), ProgramInfo.estimatesOf(p));
+        }
+    }
+
+    record Entry(String id, int segment, long offset, int length, Meta meta) {
+        String name() { return meta.name(); }
+    }
+
+    private final Path dir;
+    private final FileChannel index;
+    private final List<FileChannel> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private ProgramSegments(Path dir, FileChannel index) {
+        this.dir = dir;
+        this.index = index;
+    }
+
+    static ProgramSegments open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel index = FileChannel.open(dir.resolve("index.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ProgramSegments s = new ProgramSegments(dir, index);
+        try {
+            s.openSegments();
+            s.loadIndex();
+        } catch (IOException | RuntimeException ex) {
+            s.close();
+            throw ex;
+        }
+        return s;
+    }
+
+    Entry entry(String id) { return entries.get(id); }
+
+    Collection<Entry> entries() { return entries.values(); }
+
+    byte[] read(Entry e) throws IOException {
+        FileChannel ch = segments.get(e.segment());
+        ByteBuffer buf = ByteBuffer.allocate(e.length());
+        long pos = e.offset();
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) throw new IOException("Segment " + e.segment() + " is shorter than its index entry");
+            pos += n;
+        }
+        return buf.array();
+    }
+
+    /** Appends an encoded program unless one with this id is already stored. */
+    synchronized void append(String id, Meta meta, byte[] data) throws IOException {
+        if (entries.containsKey(id)) return;
+
+        int seg = segments.size() - 1;
+        if (seg < 0 || (segments.get(seg).size() > 0 && segments.get(seg).size() + data.length > SEGMENT_LIMIT)) {
+            seg = segments.size();
+            segments.add(FileChannel.open(segmentPath(seg),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        FileChannel ch = segments.get(seg);
+        long offset = ch.size();
+        writeFully(ch, ByteBuffer.wrap(data), offset);
+        ch.force(false);
+
+        byte[] metaBytes = encode(meta);
+        ByteBuffer rec = ByteBuffer.allocate(ID_BYTES + 4 + 8 + 4 + 4 + metaBytes.length);
+        rec.put(HexFormat.of().parseHex(id));
+        rec.putInt(seg).putLong(offset).putInt(data.length);
+        rec.putInt(metaBytes.length).put(metaBytes);
+        rec.flip();
+        writeFully(index, rec, index.size());
+
+        entries.put(id, new Entry(id, seg, offset, data.length, meta));
+    }
+
+    /**
+     * Meta layout: name (u16 length + UTF-8, 0xFFFF for none), u16 function count then each name,
+     * i32 max degree, u16 estimate count then each as i32 degree, i64 instructions, i64 cycles.
+     */
+    private static byte[] encode(Meta meta) {
+        List<byte[]> fns = new ArrayList<>();
+        int size = 2 + 2 + 4 + 2 + 20 * Math.min(meta.estimates().size(), 0xFFFF);
+        byte[] name = (meta.name() == null) ? null : utf8(meta.name());
+        if (name != null) size += name.length;
+        for (String fn : meta.functions()) {
+            if (fns.size() == 0xFFFF) break;
+            byte[] b = utf8(fn);
+            fns.add(b);
+            size += 2 + b.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        if (name == null) {
+            buf.putShort((short) 0xFFFF);
+        } else {
+            buf.putShort((short) name.length).put(name);
+        }
+        buf.putShort((short) fns.size());
+        for (byte[] b : fns) buf.putShort((short) b.length).put(b);
+        buf.putInt(meta.maxDegree());
+        int n = Math.min(meta.estimates().size(), 0xFFFF);
+        buf.putShort((short) n);
+        for (int i = 0; i < n; i++) {
+            Program.Estimate e = meta.estimates().get(i);
+            buf.putInt(e.degree).putLong(e.instructions).putLong(e.cycles);
+        }
+        return buf.array();
+    }
+
+    private static Meta decode(ByteBuffer buf) {
+        int nameLen = buf.getShort() & 0xFFFF;
+        String name = (nameLen == 0xFFFF) ? null : string(buf, nameLen);
+        int fnCount = buf.getShort() & 0xFFFF;
+        List<String> fns = new ArrayList<>(fnCount);
+        for (int i = 0; i < fnCount; i++) fns.add(string(buf, buf.getShort() & 0xFFFF));
+        int maxDegree = buf.getInt();
+        int n = buf.getShort() & 0xFFFF;
+        List<Program.Estimate> estimates = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) estimates.add(new Program.Estimate(buf.getInt(), buf.getLong(), buf.getLong()));
+        return new Meta(name, List.copyOf(fns), maxDegree, List.copyOf(estimates));
+    }
+
+    /** Names longer than a u16 length can say are cut; they are only shown in listings. */
+    private static byte[] utf8(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        return (b.length < 0xFFFF) ? b : Arrays.copyOf(b, 0xFFFE);
+    }
+
+    private static String string(ByteBuffer buf, int len) {
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException first = null;
+        List<FileChannel> all = new ArrayList<>(segments);
+        all.add(index);
+        for (FileChannel ch : all) {
+            try {
+                ch.close();
+            } catch (IOException ex) {
+                if (first == null) first = ex;
+            }
+        }
+        if (first != null) throw first;
+    }
+
+    private void openSegments() throws IOException {
+        for (int seg = 0; Files.exists(segmentPath(seg)); seg++) {
+            segments.add(FileChannel.open(segmentPath(seg), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            long all = files.filter(p -> p.getFileName().toString().matches("segment-\\d{5}\\.dat")).count();
+            if (all != segments.size()) throw new IOException("Missing segment file in " + dir);
+        }
+    }
+
+    /**
+     * Reads every index entry. A torn entry at the tail (from a crash mid-append) is cut off so the
+     * next append starts on a record boundary; entries pointing past their segment are skipped.
+     */
+    private void loadIndex() throws IOException {
+        long size = index.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(INDEX_MAGIC).putInt(INDEX_VERSION);
+            header.flip();
+            writeFully(index, header, 0);
+            return;
+        }
+        if (size < HEADER_BYTES) throw new IOException("Corrupt program index in " + dir);
+
+        MappedByteBuffer map = index.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (map.getInt() != INDEX_MAGIC) throw new IOException("Not a program index: " + dir);
+        int version = map.getInt();
+        if (version != INDEX_VERSION) throw new IOException("Unsupported program index version: " + version);
+
+        HexFormat hex = HexFormat.of();
+        byte[] idBytes = new byte[ID_BYTES];
+        long good = map.position();
+        while (map.remaining() >= ID_BYTES + 4 + 8 + 4 + 4) {
+            map.get(idBytes);
+            int seg = map.getInt();
+            long offset = map.getLong();
+            int length = map.getInt();
+            int metaLen = map.getInt();
+            if (metaLen < 0 || map.remaining() < metaLen) break;
+            ByteBuffer metaBytes = map.slice(map.position(), metaLen);
+            map.position(map.position() + metaLen);
+            good = map.position();
+
+            if (seg < 0 || seg >= segments.size() || offset < 0 || length < 0
+                    || offset + length > segments.get(seg).size()) {
+                continue;
+            }
+            Meta meta;
+            try {
+                meta = decode(metaBytes);
+            } catch (BufferUnderflowException ex) {
+                continue;
+            }
+            String id = hex.formatHex(idBytes);
+            entries.putIfAbsent(id, new Entry(id, seg, offset, length, meta));
+        }
+        if (good < size) index.truncate(good);
+    }
+
+    private Path segmentPath(int seg) {
+        return dir.resolve(String.format("segment-%05d.dat", seg));
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+}
@@ -1,49 +1,193 @@
 package server.core;
 
+import sengine.Instruction;
 import sengine.Program;
+import sengine.ProgramBinary;
+import sengine.ProgramParser;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
-public final class ProgramStore {
+public final class ProgramStore implements Closeable {
 
-    private static final ProgramStore INSTANCE = new ProgramStore();
+    /** Programs kept in memory by a persistent store; the rest are re-read from disk on demand. */
+    public static final int DEFAULT_HOT_PROGRAMS = 128;
+
+    private static volatile ProgramStore INSTANCE = new ProgramStore();
     public static ProgramStore get() { return INSTANCE; }
 
-    private final Map<String, Program> byId = new ConcurrentHashMap<>();
+    /** Replaces the shared store with one persisted under {@code dir}, reopening whatever it already holds. */
+    public static synchronized ProgramStore usePersistent(Path dir, int hotPrograms) throws IOException {
+        ProgramStore store = new ProgramStore(ProgramSegments.open(dir), hotPrograms);
+        INSTANCE = store;
+        return store;
+    }
+
+    private final ProgramSegments disk;
+    private final Map<String, Program> byId;
     private final Map<String, String> idByName = new ConcurrentHashMap<>();
+    private final Map<String, BodyRef> bodiesByDigest = new ConcurrentHashMap<>();
+    private final ReferenceQueue<List<Instruction>> clearedBodies = new ReferenceQueue<>();
 
-    public ProgramStore() {}
+    /** A shared function body, dropped from {@code bodiesByDigest} once no program uses it. */
+    private static final class BodyRef extends WeakReference<List<Instruction>> {
+        final String digest;
 
+        BodyRef(String digest, List<Instruction> body, ReferenceQueue<List<Instruction>> queue) {
+            super(body, queue);
+            this.digest = digest;
+        }
+    }
+
+    public ProgramStore() {
+        this.disk = null;
+        this.byId = new ConcurrentHashMap<>();
+    }
+
+    private ProgramStore(ProgramSegments disk, int hotPrograms) {
+        this.disk = disk;
+        this.byId = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+                return size() > hotPrograms;
+            }
+        });
+        for (ProgramSegments.Entry e : disk.entries()) {
+            if (e.name() != null) idByName.put(e.name(), e.id());
+        }
+    }
+
+    /**
+     * Stores a program under a hash of its content. Uploading an identical program again returns
+     * the existing id, and the already stored instance (with its caches) stays in use.
+     */
     public String put(Program p) {
-        String id = UUID.randomUUID().toString();
-        byId.put(id, p);
-        if (p != null && p.name != null) {
-            idByName.put(p.name, id);
+        byte[] encoded = ProgramBinary.toBytes(p);
+        String id = contentId(encoded);
+        Program stored = get(id);
+        if (stored == null) {
+            if (disk != null) {
+                try {
+                    disk.append(id, ProgramSegments.Meta.of(p), encoded);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to persist program " + id, e);
+                }
+            }
+            stored = cache(id, shareFunctions(p));
+        }
+        if (stored.name != null) {
+            idByName.put(stored.name, id);
         }
         return id;
     }
 
-    public Program get(String id) { return byId.get(id); }
+    public Program get(String id) {
+        if (id == null) return null;
+        Program p = byId.get(id);
+        if (p != null || disk == null) return p;
+
+        ProgramSegments.Entry e = disk.entry(id);
+        if (e == null) return null;
+        try {
+            return cache(id, shareFunctions(ProgramParser.parseFromBinary(disk.read(e))));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to read program " + id, ex);
+        }
+    }
 
     public Program getByName(String name) {
         String id = idByName.get(name);
-        return id == null ? null : byId.get(id);
+        return id == null ? null : get(id);
     }
 
-    public java.util.List<ProgramInfo> list() {
-        java.util.List<ProgramInfo> out = new java.util.ArrayList<>();
-        for (var e : byId.entrySet()) {
-            Program p = e.getValue();
-            out.add(new ProgramInfo(
-                    e.getKey(),
-                    p.name == null ? "(unnamed)" : p.name,
-                    new java.util.ArrayList<>(p.functions.keySet()),
-                    p.maxDegree()
-            ));
-
+    /** A persistent store lists from its index alone, without loading any program. */
+    public List<ProgramInfo> list() {
+        List<ProgramInfo> out = new ArrayList<>();
+        if (disk != null) {
+            for (ProgramSegments.Entry e : disk.entries()) {
+                ProgramSegments.Meta m = e.meta();
+                out.add(ProgramInfo.of(e.id(), m.name(), m.functions(), m.maxDegree(), m.estimates()));
+            }
+            return out;
+        }
+        for (Map.Entry<String, Program> e : byId.entrySet()) {
+            out.add(ProgramInfo.of(e.getKey(), e.getValue()));
         }
         return out;
     }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null) disk.close();
+    }
+
+    private Program cache(String id, Program p) {
+        Program prev = byId.putIfAbsent(id, p);
+        return (prev != null) ? prev : p;
+    }
+
+    /** Function bodies with the same instructions are stored once and shared between programs. */
+    private Program shareFunctions(Program p) {
+        for (Reference<?> r; (r = clearedBodies.poll()) != null; ) {
+            bodiesByDigest.remove(((BodyRef) r).digest, r);
+        }
+        if (p.functions.isEmpty()) return p;
+        Map<String, List<Instruction>> shared = new LinkedHashMap<>();
+        boolean changed = false;
+        for (Map.Entry<String, List<Instruction>> e : p.functions.entrySet()) {
+            String digest = bodyDigest(e.getValue());
+            BodyRef ref = bodiesByDigest.get(digest);
+            List<Instruction> body = (ref == null) ? null : ref.get();
+            if (body == null) {
+                body = e.getValue();
+                bodiesByDigest.put(digest, new BodyRef(digest, body, clearedBodies));
+            }
+            changed |= body != e.getValue();
+            shared.put(e.getKey(), body);
+        }
+        return changed ? new Program(p.name, p.instructions, shared) : p;
+    }
+
+    private static String contentId(byte[] encoded) {
+        return HexFormat.of().formatHex(sha256().digest(encoded));
+    }
+
+    private static String bodyDigest(List<Instruction> body) {
+        MessageDigest md = sha256();
+        for (Instruction ins : body) {
+            md.update((byte) (ins.label == null ? 0 : 1));
+            if (ins.label != null) md.update(ins.label.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update((byte) (ins.text == null ? 0 : 1));
+            if (ins.text != null) md.update(ins.text.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update((byte) (ins.basic ? 1 : 0));
+            md.update(Integer.toString(ins.declaredCycles).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
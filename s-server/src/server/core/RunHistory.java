@@ -0,0 +1,137 @@
+package server.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One user's run history: the latest {@code capacity} runs in a ring of primitive columns, plus
+ * totals that keep counting after old rows are overwritten. Inputs are kept as int arrays and only
+ * formatted when the history is read.
+ */
+final class RunHistory {
+
+    private static final int INITIAL_ROWS = 16;
+    private static final int[] NO_INPUTS = new int[0];
+
+    private final int capacity;
+    private String[] program;
+    private int[] degree;
+    private int[] y;
+    private int[] cycles;
+    private long[] timestamp;
+    private int[][] inputs;
+
+    /** Index of the oldest row, and how many rows are held. */
+    private int head;
+    private int size;
+
+    private long runs;
+    private long totalCycles;
+    private int maxCycles;
+
+    RunHistory(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("history capacity must be at least 1");
+        this.capacity = capacity;
+        int n = Math.min(capacity, INITIAL_ROWS);
+        program = new String[n];
+        degree = new int[n];
+        y = new int[n];
+        cycles = new int[n];
+        timestamp = new long[n];
+        inputs = new int[n][];
+    }
+
+    /** Records a run and returns its run number (1-based, counting evicted runs too). */
+    synchronized long add(String program, int degree, List<Integer> in, int y, int cycles, long timestamp) {
+        if (size == this.degree.length && size < capacity) grow();
+
+        int slot;
+        if (size < this.degree.length) {
+            slot = (head + size) % this.degree.length;
+            size++;
+        } else {
+            slot = head;
+            head = (head + 1) % this.degree.length;
+        }
+        this.program[slot] = program;
+        this.degree[slot] = degree;
+        this.y[slot] = y;
+        this.cycles[slot] = cycles;
+        this.timestamp[slot] = timestamp;
+        this.inputs[slot] = pack(in);
+
+        runs++;
+        totalCycles += Math.max(0, cycles);
+        maxCycles = Math.max(maxCycles, cycles);
+        return runs;
+    }
+
+    synchronized List<EngineFacade.HistoryRow> rows() {
+        return query(new EngineFacade.HistoryQuery(null, null, null, null, null, 0, size)).rows();
+    }
+
+    /** Filters the retained rows; evicted runs are not counted in the page total. */
+    synchronized EngineFacade.HistoryPage query(EngineFacade.HistoryQuery q) {
+        List<EngineFacade.HistoryRow> out = new ArrayList<>(Math.min(q.limit(), size));
+        long first = runs - size + 1;
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % degree.length;
+            if (!q.matches(program[slot], degree[slot], timestamp[slot])) continue;
+            if (total >= q.offset() && out.size() < q.limit()) {
+                out.add(new EngineFacade.HistoryRow((int) (first + i), program[slot], degree[slot],
+                        format(inputs[slot]), y[slot], cycles[slot], timestamp[slot]));
+            }
+            total++;
+        }
+        return new EngineFacade.HistoryPage(total, out);
+    }
+
+    synchronized RunManager.HistoryStats stats() {
+        return new RunManager.HistoryStats(runs, totalCycles, maxCycles, size);
+    }
+
+    /** Doubles the columns, up to the capacity, unrolling the ring so the oldest row is first. */
+    private void grow() {
+        int n = (int) Math.min(capacity, 2L * degree.length);
+        String[] prog = new String[n];
+        for (int i = 0; i < size; i++) prog[i] = program[(head + i) % program.length];
+        program = prog;
+        degree = unroll(degree, n);
+        y = unroll(y, n);
+        cycles = unroll(cycles, n);
+        long[] ts = new long[n];
+        int[][] ins = new int[n][];
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) % timestamp.length;
+            ts[i] = timestamp[slot];
+            ins[i] = inputs[slot];
+        }
+        timestamp = ts;
+        inputs = ins;
+        head = 0;
+    }
+
+    private int[] unroll(int[] col, int n) {
+        int[] out = new int[n];
+        for (int i = 0; i < size; i++) out[i] = col[(head + i) % col.length];
+        return out;
+    }
+
+    private static int[] pack(List<Integer> in) {
+        if (in == null || in.isEmpty()) return NO_INPUTS;
+        int[] out = new int[in.size()];
+        for (int i = 0; i < out.length; i++) out[i] = in.get(i);
+        return out;
+    }
+
+    private static String format(int[] in) {
+        if (in.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < in.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(in[i]);
+        }
+        return sb.toString();
+    }
+}
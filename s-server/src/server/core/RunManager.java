@@ -1,29 +1,903 @@
 package server.core;
 
 import sengine.Debugger;
+import sengine.Program;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
+/**
+ * Debug sessions expire after {@code idleTtl} without access. The number of sessions and their
+ * estimated heap footprint are both capped; when either cap is exceeded the least recently used
+ * sessions are dropped. A daemon thread sweeps expired sessions periodically.
+ *
+ * With a spill directory, sessions idle for {@code spillAfter} (or pushed out by the caps) are
+ * written to {@code <runId>.dbg} there instead of being dropped, and rebuilt on their next access
+ * from the program's cached rendering. Only their run id and last access time stay in memory.
+ *
+ * Engine work (runs, jobs, debug resumes) holds one of a fixed number of run permits while it
+ * executes, so however many requests or jobs are waiting, only that many runs use the CPU at once.
+ * Callers are turned away with a {@link BusyException} rather than queued without bound: when the
+ * wait queue is full, or when the user already has {@code runsPerUser} runs queued or running.
+ * Jobs each get a virtual thread where the runtime has them (JDK 21+) and otherwise share a pool
+ * of platform threads; the number of queued and running jobs is bounded. Finished jobs are kept
+ * for {@code idleTtl} to be polled.
+ */
 public final class RunManager {
-    private final Map<String, Debugger> debuggers = new ConcurrentHashMap<>();
-    private final Map<String, List<EngineFacade.HistoryRow>> historyByUser = new ConcurrentHashMap<>();
+
+    public static final Duration DEFAULT_IDLE_TTL = Duration.ofMinutes(30);
+    public static final int DEFAULT_MAX_SESSIONS = 1_000;
+    public static final long DEFAULT_MAX_SESSION_BYTES = 256L << 20;
+
+    public static final Duration DEFAULT_SPILL_AFTER = Duration.ofMinutes(2);
+    public static final int DEFAULT_HISTORY_PER_USER = 1_000;
+    public static final int DEFAULT_RUN_CONCURRENCY = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_RUN_QUEUE = 256;
+    public static final int DEFAULT_RUNS_PER_USER = 4;
+
+    /** Thrown when a run is not admitted; the caller may try again after {@link #retryAfterSeconds()}. */
+    public static final class BusyException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        private final int retryAfterSeconds;
+
+        BusyException(String message, int retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public int retryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    public enum JobState { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    /**
+     * A run on the job pool. The work reports where it is through {@link #progress} and should stop
+     * once {@link #cancelRequested()} turns true.
+     */
+    public static final class Job {
+        private final String id;
+        private final String userId;
+        private final AtomicReference<JobState> state = new AtomicReference<>(JobState.QUEUED);
+        private volatile boolean cancelRequested;
+        private volatile long cycles;
+        private volatile int pc;
+        private volatile EngineFacade.RunResult result;
+        private volatile String error;
+        private volatile long finishedAt;
+
+        private Job(String id, String userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+
+        public String id() { return id; }
+        public JobState state() { return state.get(); }
+        public long cycles() { return cycles; }
+        public int pc() { return pc; }
+        /** Set once the job is DONE, or CANCELLED after it started. */
+        public EngineFacade.RunResult result() { return result; }
+        public String error() { return error; }
+        public boolean cancelRequested() { return cancelRequested; }
+
+        public void progress(long cycles, int pc) {
+            this.cycles = cycles;
+            this.pc = pc;
+        }
+
+        /** Returns false when the job was cancelled before it started. */
+        private boolean run(Function<Job, EngineFacade.RunResult> work) {
+            if (!state.compareAndSet(JobState.QUEUED, JobState.RUNNING)) return false;
+            JobState end;
+            try {
+                result = work.apply(this);
+                end = cancelRequested ? JobState.CANCELLED : JobState.DONE;
+            } catch (RuntimeException ex) {
+                error = String.valueOf(ex.getMessage());
+                end = JobState.FAILED;
+            }
+            finishedAt = System.currentTimeMillis();
+            state.set(end);
+            return true;
+        }
+
+        /** Returns true when the job was still queued and will not run at all. */
+        private boolean cancel() {
+            cancelRequested = true;
+            if (!state.compareAndSet(JobState.QUEUED, JobState.CANCELLED)) return false;
+            finishedAt = System.currentTimeMillis();
+            return true;
+        }
+    }
+
+    /** Totals over every run a user made, including those no longer kept in the history. */
+    public record HistoryStats(long runs, long totalCycles, int maxCycles, int retained) {}
+
+    /**
+     * Rough heap cost of a session. Renderings are cached on the Program and shared between sessions,
+     * so a session itself holds little more than its variables.
+     */
+    private static final long BYTES_PER_VAR = 96;
+    private static final long BYTES_PER_SESSION = 1_024;
+
+    private static final int SPILL_MAGIC = 0x53444247; // "SDBG"
+    private static final int SPILL_VERSION = 1;
+    private static final String SPILL_SUFFIX = ".dbg";
+
+    private static final class Session {
+        final String programId;
+        final Debugger dbg;
+        /** What this session adds to {@code sessionBytes}; -1 once it left memory. */
+        final AtomicLong bytes = new AtomicLong();
+        /** Held while the debugger is used or spilled, so a spill never misses a step. */
+        final ReentrantLock lock = new ReentrantLock();
+        volatile long lastAccess;
+        /** Picked for eviction by {@link #enforceLimits}; guarded by the RunManager. */
+        boolean evicting;
+
+        Session(String programId, Debugger dbg, long now) {
+            this.programId = programId;
+            this.dbg = dbg;
+            this.lastAccess = now;
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Long> spilled = new ConcurrentHashMap<>();
+    /** Spill files being read back; later lookups of the same run wait for the first one. */
+    private final Map<String, CompletableFuture<Session>> restoring = new ConcurrentHashMap<>();
+    /** Sessions picked by {@link #enforceLimits} but not yet gone, and their bytes; guarded by this. */
+    private int evictingSessions;
+    private long evictingBytes;
+    private final AtomicLong sessionBytes = new AtomicLong();
+    private final Map<String, RunHistory> historyByUser = new ConcurrentHashMap<>();
+    private volatile HistoryLog historyLog;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger jobsInFlight = new AtomicInteger();
+    private volatile Semaphore runPermits = new Semaphore(DEFAULT_RUN_CONCURRENCY);
+    private volatile int runConcurrency = DEFAULT_RUN_CONCURRENCY;
+    private volatile int runQueue = DEFAULT_RUN_QUEUE;
+    private volatile int runsPerUser = DEFAULT_RUNS_PER_USER;
+    private volatile ExecutorService runPool;
+    private final Map<String, AtomicInteger> runsByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+
+    private final long idleTtlMillis;
+    private final int maxSessions;
+    private final long maxSessionBytes;
+    private final Path spillDir;
+    private final long spillAfterMillis;
+    private final Function<String, Program> programs;
+    private final int historyPerUser;
+    private final ScheduledExecutorService sweeper;
+
+    public RunManager() {
+        this(DEFAULT_IDLE_TTL, DEFAULT_MAX_SESSIONS, DEFAULT_MAX_SESSION_BYTES);
+    }
+
+    public RunManager(Duration idleTtl, int maxSessions, long maxSessionBytes) {
+        this(idleTtl, maxSessions, maxSessionBytes, null, DEFAULT_SPILL_AFTER, id -> null, DEFAULT_HISTORY_PER_USER);
+    }
+
+    /**
+     * @param spillDir  where idle sessions are written; null drops them instead
+     * @param programs  resolves a program id when a spilled session is restored
+     * @param historyPerUser  runs kept per user; older ones only count towards {@link #historyStats}
+     */
+    public RunManager(Duration idleTtl, int maxSessions, long maxSessionBytes,
+                      Path spillDir, Duration spillAfter, Function<String, Program> programs,
+                      int historyPerUser) {
+        if (idleTtl.isNegative() || idleTtl.isZero()) throw new IllegalArgumentException("idleTtl must be positive");
+        if (maxSessions < 1) throw new IllegalArgumentException("maxSessions must be at least 1");
+        if (historyPerUser < 1) throw new IllegalArgumentException("historyPerUser must be at least 1");
+        this.idleTtlMillis = idleTtl.toMillis();
+        this.maxSessions = maxSessions;
+        this.maxSessionBytes = maxSessionBytes;
+        this.spillDir = spillDir;
+        this.spillAfterMillis = spillAfter.toMillis();
+        this.programs = programs;
+        this.historyPerUser = historyPerUser;
+
+        if (spillDir != null) adoptSpilled();
+
+        long period = Math.max(1_000, Math.min(Math.min(idleTtlMillis, spillAfterMillis) / 2, 60_000));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "debug-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
 
     public String registerDebugger(Debugger dbg) {
+        return registerDebugger(null, dbg);
+    }
+
+    /** Sessions registered with their program id can be spilled to disk and restored. */
+    public String registerDebugger(String programId, Debugger dbg) {
         String id = UUID.randomUUID().toString();
-        debuggers.put(id, dbg);
+        Session s = new Session(programId, dbg, System.currentTimeMillis());
+        sessions.put(id, s);
+        resize(s);
+        enforceLimits(id);
         return id;
     }
 
-    public Debugger getDebugger(String runId) { return debuggers.get(runId); }
+    /**
+     * Applies {@code work} to a session's debugger, restoring it first when it was spilled; null when
+     * there is no such session. The session is not spilled while {@code work} runs.
+     */
+    public <T> T withDebugger(String runId, Function<Debugger, T> work) {
+        if (runId == null) return null;
+        while (true) {
+            Session s = sessions.get(runId);
+            if (s == null && spilled.containsKey(runId)) s = restore(runId);
+            if (s == null) return null;
 
-    public void stop(String runId) { debuggers.remove(runId); }
+            T out;
+            boolean grew;
+            s.lock.lock();
+            try {
+                if (sessions.get(runId) != s) continue; // spilled or stopped before we got it
+                s.lastAccess = System.currentTimeMillis();
+                out = work.apply(s.dbg);
+                s.lastAccess = System.currentTimeMillis();
+                grew = resize(s);
+            } finally {
+                s.lock.unlock();
+            }
+            if (grew) enforceLimits(runId);
+            return out;
+        }
+    }
 
-    public void addHistory(String userId, EngineFacade.HistoryRow row) {
-        historyByUser.computeIfAbsent(userId, k -> Collections.synchronizedList(new ArrayList<>())).add(row);
+    public void stop(String runId) {
+        remove(runId);
+        if (runId != null && spilled.remove(runId) != null) deleteSpill(runId);
     }
 
+    /** Sessions resident in memory. */
+    public int sessionCount() { return sessions.size(); }
+
+    /** Sessions currently held on disk. */
+    public int spilledCount() { return spilled.size(); }
+
+    /** Estimated heap held by open debug sessions. */
+    public long sessionBytes() { return sessionBytes.get(); }
+
+    /** Expires sessions idle past the TTL, spills those idle past spillAfter, then applies the caps. */
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        long expired = now - idleTtlMillis;
+        for (Map.Entry<String, Session> e : sessions.entrySet()) {
+            if (e.getValue().lock.isLocked()) continue;
+            long t = e.getValue().lastAccess;
+            if (t < expired) remove(e.getKey());
+            else if (t < now - spillAfterMillis) spill(e.getKey());
+        }
+        for (Map.Entry<String, Long> e : spilled.entrySet()) {
+            if (e.getValue() < expired && spilled.remove(e.getKey(), e.getValue())) deleteSpill(e.getKey());
+        }
+        for (Map.Entry<String, Job> e : jobs.entrySet()) {
+            long done = e.getValue().finishedAt;
+            if (done != 0 && done < expired) jobs.remove(e.getKey(), e.getValue());
+        }
+        enforceLimits(null);
+    }
+
+    /**
+     * Caps engine work at {@code concurrency} runs at once, with at most {@code queueCapacity} more
+     * waiting, and each user at {@code perUser} runs queued or running. Must be called before the
+     * first job is submitted.
+     */
+    public synchronized void limitRuns(int concurrency, int queueCapacity, int perUser) {
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1");
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be at least 1");
+        if (perUser < 1) throw new IllegalArgumentException("perUser must be at least 1");
+        if (runPool != null) throw new IllegalStateException("Run pool already started");
+        this.runConcurrency = concurrency;
+        this.runQueue = queueCapacity;
+        this.runsPerUser = perUser;
+        this.runPermits = new Semaphore(concurrency);
+    }
+
+    public <T> T withRunPermit(Supplier<T> work) {
+        return withRunPermit(null, work);
+    }
+
+    /**
+     * Runs {@code work} on the calling thread once a run permit is free.
+     *
+     * @throws BusyException when the wait queue is full or {@code userId} is at its limit
+     */
+    public <T> T withRunPermit(String userId, Supplier<T> work) {
+        enterUser(userId);
+        try {
+            return permitted(work, System.nanoTime(), false);
+        } finally {
+            leaveUser(userId);
+        }
+    }
+
+    /**
+     * Runs {@code work} for every index in {@code [0, tasks)} on the run pool, each under its own
+     * run permit, and returns once all are done. The call counts as one run for {@code userId}.
+     * Tasks stop being started after the first one fails; that failure is rethrown.
+     *
+     * @throws BusyException when the wait queue is full or {@code userId} is at its limit
+     */
+    public void forEachPermitted(String userId, int tasks, IntConsumer work) {
+        if (tasks <= 0) return;
+        enterUser(userId);
+        try {
+            int workers = Math.min(tasks, Math.min(runConcurrency, runQueue));
+            if (waiting.addAndGet(workers) > runQueue) {
+                waiting.addAndGet(-workers);
+                throw busy("Server busy, try again later");
+            }
+            AtomicInteger next = new AtomicInteger();
+            AtomicReference<RuntimeException> failure = new AtomicReference<>();
+            CountDownLatch done = new CountDownLatch(workers);
+            long submitted = System.nanoTime();
+            for (int i = 0; i < workers; i++) {
+                try {
+                    runPool().execute(() -> drain(tasks, work, next, failure, submitted, done));
+                } catch (RejectedExecutionException ex) {
+                    failure.compareAndSet(null, new IllegalStateException("Run manager is shut down"));
+                    waiting.addAndGet(-(workers - i));
+                    for (int j = i; j < workers; j++) done.countDown();
+                    break;
+                }
+            }
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, new IllegalStateException("Interrupted while waiting to run"));
+                Thread.currentThread().interrupt();
+            }
+            if (failure.get() != null) throw failure.get();
+        } finally {
+            leaveUser(userId);
+        }
+    }
+
+    /** One worker of {@link #forEachPermitted}: takes tasks until none are left, a permit per task. */
+    private void drain(int tasks, IntConsumer work, AtomicInteger next,
+                       AtomicReference<RuntimeException> failure, long since, CountDownLatch done) {
+        boolean counted = true; // counted as waiting when admitted
+        try {
+            int t;
+            while (failure.get() == null && (t = next.getAndIncrement()) < tasks) {
+                if (!counted) waiting.incrementAndGet();
+                counted = false;
+                int task = t;
+                permitted(() -> {
+                    work.accept(task);
+                    return null;
+                }, since, true);
+                since = System.nanoTime();
+            }
+        } catch (RuntimeException ex) {
+            failure.compareAndSet(null, ex);
+        } finally {
+            if (counted) waiting.decrementAndGet();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Queues {@code work} as a job and returns the job at once.
+     *
+     * @throws BusyException when too many jobs are queued or running, overall or for {@code userId}
+     */
+    public Job submitJob(String userId, Function<Job, EngineFacade.RunResult> work) {
+        enterUser(userId);
+        if (jobsInFlight.incrementAndGet() > runConcurrency + runQueue) {
+            jobsInFlight.decrementAndGet();
+            leaveUser(userId);
+            throw busy("Too many runs queued, try again later");
+        }
+        Job job = new Job("job-" + UUID.randomUUID(), userId);
+        jobs.put(job.id, job);
+        long submitted = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            runPool().execute(() -> {
+                if (job.state() != JobState.QUEUED) {
+                    waiting.decrementAndGet(); // cancelled while queued
+                    return;
+                }
+                try {
+                    if (permitted(() -> job.run(work), submitted, true)) jobEnded(job);
+                } catch (IllegalStateException ex) {
+                    cancelJob(job.id); // interrupted by shutdown while still waiting for a permit
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            jobs.remove(job.id);
+            waiting.decrementAndGet();
+            jobEnded(job);
+            throw new IllegalStateException("Run manager is shut down");
+        }
+        return job;
+    }
+
+    public Job getJob(String jobId) {
+        return (jobId == null) ? null : jobs.get(jobId);
+    }
+
+    /** Asks a job to stop; a queued job never starts, a running one stops at its next progress report. */
+    public Job cancelJob(String jobId) {
+        Job job = getJob(jobId);
+        if (job != null && job.cancel()) jobEnded(job);
+        return job;
+    }
+
+    public EngineFacade.RunMetrics runMetrics() {
+        long n = admitted.get();
+        long done = completed.get();
+        return new EngineFacade.RunMetrics(
+                runConcurrency - runPermits.availablePermits(), waiting.get(), jobsInFlight.get(),
+                n, rejected.get(),
+                (n == 0) ? 0 : waitNanos.get() / 1e6 / n,
+                maxWaitNanos.get() / 1e6,
+                (done == 0) ? 0 : runNanos.get() / 1e6 / done);
+    }
+
+    /**
+     * Holds a run permit while {@code work} runs. Callers are turned away when the wait queue is
+     * full; {@code queued} jobs were admitted and counted as waiting on submit, so they always wait.
+     */
+    private <T> T permitted(Supplier<T> work, long since, boolean queued) {
+        Semaphore permits = runPermits;
+        if (queued || !permits.tryAcquire()) {
+            if (!queued && waiting.incrementAndGet() > runQueue) {
+                waiting.decrementAndGet();
+                throw busy("Server busy, try again later");
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to run");
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        long begin = System.nanoTime();
+        long waited = begin - since;
+        admitted.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        try {
+            return work.get();
+        } finally {
+            permits.release();
+            completed.incrementAndGet();
+            runNanos.addAndGet(System.nanoTime() - begin);
+        }
+    }
+
+    private void enterUser(String userId) {
+        if (userId == null || userId.isBlank()) return;
+        AtomicInteger n = runsByUser.computeIfAbsent(userId, k -> new AtomicInteger());
+        if (n.incrementAndGet() > runsPerUser) {
+            n.decrementAndGet();
+            throw busy("Too many runs in progress for this user");
+        }
+    }
+
+    private void leaveUser(String userId) {
+        if (userId == null || userId.isBlank()) return;
+        AtomicInteger n = runsByUser.get(userId);
+        if (n != null) n.decrementAndGet();
+    }
+
+    private void jobEnded(Job job) {
+        jobsInFlight.decrementAndGet();
+        leaveUser(job.userId);
+    }
+
+    /** Suggests a retry once the runs ahead of the caller are likely done, from the average run time. */
+    private BusyException busy(String message) {
+        rejected.incrementAndGet();
+        long done = completed.get();
+        double avgMillis = (done == 0) ? 1_000 : runNanos.get() / 1e6 / done;
+        double aheadMillis = avgMillis * (waiting.get() + runConcurrency) / runConcurrency;
+        int seconds = (int) Math.max(1, Math.min(60, Math.ceil(aheadMillis / 1_000)));
+        return new BusyException(message, seconds);
+    }
+
+    /** True when jobs run on virtual threads. */
+    public boolean virtualThreads() {
+        return !(runPool() instanceof ThreadPoolExecutor);
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+        for (Job job : jobs.values()) {
+            if (job.cancel()) jobEnded(job);
+        }
+        ExecutorService pool = runPool;
+        if (pool != null) pool.shutdownNow();
+        HistoryLog log = historyLog;
+        historyLog = null;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Keeps run history in an append-only log at {@code file} instead of in memory, reopening
+     * whatever it already holds. Every run is then kept; {@link #history(String)} still returns only
+     * the latest {@code historyPerUser}, older ones are reached through {@link #history(EngineFacade.HistoryQuery)}.
+     */
+    public synchronized void useHistoryLog(Path file) throws IOException {
+        HistoryLog log = HistoryLog.open(file);
+        HistoryLog prev = historyLog;
+        historyLog = log;
+        if (prev != null) prev.close();
+    }
+
+    /** Records a run for {@code userId} and returns its run number. */
+    public long addHistory(String userId, String programId, int degree, List<Integer> inputs,
+                           int y, int cycles, long timestamp) {
+        HistoryLog log = historyLog;
+        if (log != null) {
+            try {
+                return log.append(userId, programId, degree, inputs, y, cycles, timestamp);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to record run history", e);
+            }
+        }
+        return historyByUser.computeIfAbsent(userId, k -> new RunHistory(historyPerUser))
+                .add(programId, degree, inputs, y, cycles, timestamp);
+    }
+
+    /** The user's most recent runs, oldest first. */
     public List<EngineFacade.HistoryRow> history(String userId) {
-        return historyByUser.getOrDefault(userId, List.of());
+        if (historyLog != null) {
+            long total = historyStats(userId).runs();
+            int skip = (int) Math.max(0, total - historyPerUser);
+            return history(new EngineFacade.HistoryQuery(userId, null, null, null, null, skip, historyPerUser)).rows();
+        }
+        RunHistory h = historyByUser.get(userId);
+        return (h == null) ? List.of() : h.rows();
+    }
+
+    public EngineFacade.HistoryPage history(EngineFacade.HistoryQuery query) {
+        HistoryLog log = historyLog;
+        if (log != null) {
+            try {
+                return log.query(query);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read run history", e);
+            }
+        }
+        if (query.userId() != null) {
+            RunHistory h = historyByUser.get(query.userId());
+            return (h == null) ? new EngineFacade.HistoryPage(0, List.of()) : h.query(query);
+        }
+        if (query.programId() == null) throw new IllegalArgumentException("History query needs a user or a program");
+
+        EngineFacade.HistoryQuery all = new EngineFacade.HistoryQuery(null, query.programId(), query.degree(),
+                query.from(), query.to(), 0, Integer.MAX_VALUE);
+        List<EngineFacade.HistoryRow> matched = new ArrayList<>();
+        for (RunHistory h : historyByUser.values()) matched.addAll(h.query(all).rows());
+        matched.sort(Comparator.comparingLong(EngineFacade.HistoryRow::timestamp));
+        int from = Math.min(query.offset(), matched.size());
+        int to = (int) Math.min(matched.size(), (long) from + query.limit());
+        return new EngineFacade.HistoryPage(matched.size(), new ArrayList<>(matched.subList(from, to)));
+    }
+
+    public HistoryStats historyStats(String userId) {
+        HistoryLog log = historyLog;
+        if (log != null) return log.stats(userId);
+        RunHistory h = historyByUser.get(userId);
+        return (h == null) ? new HistoryStats(0, 0, 0, 0) : h.stats();
+    }
+
+    /**
+     * A virtual thread per job on runtimes that have them; otherwise platform threads, as many as
+     * there are run permits, since more could only wait for one.
+     */
+    private ExecutorService runPool() {
+        ExecutorService pool = runPool;
+        if (pool != null) return pool;
+        synchronized (this) {
+            if (runPool == null) {
+                pool = virtualThreadExecutor();
+                if (pool == null) {
+                    AtomicInteger n = new AtomicInteger();
+                    ThreadPoolExecutor platform = new ThreadPoolExecutor(runConcurrency, runConcurrency,
+                            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                                Thread t = new Thread(r, "run-worker-" + n.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            });
+                    platform.allowCoreThreadTimeOut(true);
+                    pool = platform;
+                }
+                runPool = pool;
+            }
+            return runPool;
+        }
+    }
+
+    /** {@code Executors.newVirtualThreadPerTaskExecutor()}, looked up so this still runs on JDK 17; null there. */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evicts least recently used sessions until both caps hold; {@code keep} and sessions in use are not.
+     * Victims are picked under the monitor and spilled outside it, so a slow disk only holds up the caller.
+     */
+    private void enforceLimits(String keep) {
+        while (true) {
+            String victim = null;
+            Session s = null;
+            long bytes;
+            synchronized (this) {
+                if (sessions.size() - evictingSessions <= maxSessions
+                        && sessionBytes.get() - evictingBytes <= maxSessionBytes) return;
+                long oldestAccess = Long.MAX_VALUE;
+                for (Map.Entry<String, Session> e : sessions.entrySet()) {
+                    Session c = e.getValue();
+                    if (e.getKey().equals(keep) || c.evicting || c.lock.isLocked()) continue;
+                    if (c.lastAccess < oldestAccess) {
+                        oldestAccess = c.lastAccess;
+                        victim = e.getKey();
+                        s = c;
+                    }
+                }
+                if (victim == null) return;
+                bytes = Math.max(0, s.bytes.get());
+                s.evicting = true;
+                evictingSessions++;
+                evictingBytes += bytes;
+            }
+            try {
+                // a session picked up by a request in the meantime stays; the next pass finds another
+                if (s.lock.tryLock()) {
+                    try {
+                        if (sessions.get(victim) == s && !spill(victim, s) && sessions.remove(victim, s)) {
+                            release(s);
+                        }
+                    } finally {
+                        s.lock.unlock();
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    s.evicting = false;
+                    evictingSessions--;
+                    evictingBytes -= bytes;
+                }
+            }
+        }
+    }
+
+    /** Spills a session unless it is in use or already gone. */
+    private void spill(String runId) {
+        Session s = sessions.get(runId);
+        if (s == null || !s.lock.tryLock()) return;
+        try {
+            if (sessions.get(runId) == s) spill(runId, s);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a session to the spill directory and drops it from memory; the caller holds its lock.
+     * Returns false when it cannot be spilled (no directory, no program id, or an I/O failure).
+     */
+    private boolean spill(String runId, Session s) {
+        if (spillDir == null || s.programId == null) return false;
+        long seen = s.lastAccess;
+        Debugger.Snapshot snap = s.dbg.snapshot();
+        Path file = spillDir.resolve(runId + SPILL_SUFFIX);
+        Path tmp = spillDir.resolve(runId + SPILL_SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SPILL_MAGIC);
+            out.writeShort(SPILL_VERSION);
+            out.writeUTF(s.programId);
+            out.writeInt(s.dbg.degree());
+            out.writeInt(snap.pc);
+            out.writeInt(snap.cycles);
+            out.writeBoolean(snap.halted);
+            writeVars(out, snap.vars);
+            writeVars(out, s.dbg.previousVars());
+        } catch (IOException e) {
+            deleteQuietly(tmp);
+            return false;
+        }
+
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteQuietly(tmp);
+            return false;
+        }
+        // listed as spilled before it leaves memory, so a lookup always finds it in one or the other
+        spilled.put(runId, seen);
+        if (!sessions.remove(runId, s)) {
+            spilled.remove(runId, seen);
+            deleteQuietly(file);
+            return false;
+        }
+        release(s);
+        return true;
+    }
+
+    /**
+     * Reads a spilled session back into memory. The first caller for a run does the reading, without
+     * holding any lock; others asking for the same run meanwhile wait for its result.
+     */
+    private Session restore(String runId) {
+        CompletableFuture<Session> mine = new CompletableFuture<>();
+        CompletableFuture<Session> pending = restoring.putIfAbsent(runId, mine);
+        if (pending != null) return pending.join();
+
+        Session s;
+        try {
+            s = sessions.get(runId);
+            if (s == null && spilled.containsKey(runId)) {
+                Path file = spillDir.resolve(runId + SPILL_SUFFIX);
+                s = readSpill(file);
+                // resident before it stops being spilled; a stop() in between wins
+                if (s != null) sessions.put(runId, s);
+                if (spilled.remove(runId) == null && s != null) {
+                    sessions.remove(runId, s);
+                    s = null;
+                }
+                deleteQuietly(file);
+                if (s != null) resize(s);
+            }
+            mine.complete(s);
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            restoring.remove(runId, mine);
+        }
+        if (s != null) enforceLimits(runId);
+        return s;
+    }
+
+    /** Rebuilds a spilled session; null when the file is unreadable or its program is gone. */
+    private Session readSpill(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SPILL_MAGIC || in.readUnsignedShort() != SPILL_VERSION) return null;
+            String programId = in.readUTF();
+            int degree = in.readInt();
+            int pc = in.readInt();
+            int cycles = in.readInt();
+            boolean halted = in.readBoolean();
+            Map<String, Integer> vars = readVars(in);
+            Map<String, Integer> prevVars = readVars(in);
+
+            Program p = programs.apply(programId);
+            if (p == null) return null;
+            Debugger dbg = Debugger.restore(p, degree, pc, cycles, halted, vars, prevVars);
+            return new Session(programId, dbg, System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void writeVars(DataOutputStream out, Map<String, Integer> vars) throws IOException {
+        out.writeInt(vars.size());
+        for (Map.Entry<String, Integer> v : vars.entrySet()) {
+            out.writeUTF(v.getKey());
+            out.writeInt(v.getValue());
+        }
+    }
+
+    private static Map<String, Integer> readVars(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        Map<String, Integer> vars = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) vars.put(in.readUTF(), in.readInt());
+        return vars;
+    }
+
+    /** Picks up sessions spilled by a previous run; they expire like any other spilled session. */
+    private void adoptSpilled() {
+        try {
+            Files.createDirectories(spillDir);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDir, "*" + SPILL_SUFFIX)) {
+                for (Path f : files) {
+                    String name = f.getFileName().toString();
+                    spilled.put(name.substring(0, name.length() - SPILL_SUFFIX.length()),
+                            Files.getLastModifiedTime(f).toMillis());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot use debug spill directory " + spillDir, e);
+        }
+    }
+
+    private void deleteSpill(String runId) {
+        if (spillDir != null) deleteQuietly(spillDir.resolve(runId + SPILL_SUFFIX));
+    }
+
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void remove(String runId) {
+        Session s = (runId == null) ? null : sessions.remove(runId);
+        if (s != null) release(s);
+    }
+
+    /**
+     * Re-estimates a resident session, whose variables grow as it steps, and moves
+     * {@code sessionBytes} by the difference. Returns true when the estimate grew.
+     */
+    private boolean resize(Session s) {
+        long now = estimateBytes(s.dbg);
+        while (true) {
+            long was = s.bytes.get();
+            if (was < 0 || was == now) return false;
+            if (s.bytes.compareAndSet(was, now)) {
+                sessionBytes.addAndGet(now - was);
+                return now > was;
+            }
+        }
+    }
+
+    /** Takes a session's current share out of {@code sessionBytes}, once. */
+    private void release(Session s) {
+        long was = s.bytes.getAndSet(-1);
+        if (was > 0) sessionBytes.addAndGet(-was);
+    }
+
+    private static long estimateBytes(Debugger dbg) {
+        return BYTES_PER_SESSION + (long) dbg.snapshot().vars.size() * BYTES_PER_VAR;
     }
 }
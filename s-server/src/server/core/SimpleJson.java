@@ -2,6 +2,7 @@ package server.core;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.util.*;
 
@@ -11,6 +12,8 @@ import java.util.*;
  *   - parse(String) -> Map<String,Object> (wraps non-object roots under "value")
  *   - write(Writer, Object)
  *   - write(PrintWriter, Object)
+ * Values are written to the writer as they are serialized, a few kilobytes at a time, so large
+ * Lists or Iterables (which may produce their elements lazily) are never held as one String.
  */
 public final class SimpleJson {
 
@@ -31,22 +34,32 @@ public final class SimpleJson {
     }
 
     public static void write(Writer w, Object value) throws IOException {
-        w.write(WriterUtil.stringify(value));
+        StringBuilder sb = new StringBuilder();
+        WriterUtil.writeVal(sb, w, value);
+        w.append(sb);
     }
 
     public static void write(PrintWriter w, Object value) {
-        w.write(WriterUtil.stringify(value));
+        try {
+            write((Writer) w, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /* ===================== Writer ===================== */
 
     private static final class WriterUtil {
-        static String stringify(Object o) {
-            StringBuilder sb = new StringBuilder();
-            writeVal(sb, o);
-            return sb.toString();
+        static final int CHUNK = 8 * 1024;
+
+        /** Moves what has been serialized so far to the writer once it reaches a chunk. */
+        static void drain(StringBuilder sb, Writer w) throws IOException {
+            if (sb.length() >= CHUNK) {
+                w.append(sb);
+                sb.setLength(0);
+            }
         }
-        static void writeVal(StringBuilder sb, Object v) {
+        static void writeVal(StringBuilder sb, Writer w, Object v) throws IOException {
             if (v == null) { sb.append("null"); return; }
             if (v instanceof String s) { writeStr(sb, s); return; }
             if (v instanceof Number || v instanceof Boolean) { sb.append(String.valueOf(v)); return; }
@@ -57,8 +70,9 @@ public final class SimpleJson {
                     if (!first) sb.append(',');
                     writeStr(sb, String.valueOf(e.getKey()));
                     sb.append(':');
-                    writeVal(sb, e.getValue());
+                    writeVal(sb, w, e.getValue());
                     first = false;
+                    drain(sb, w);
                 }
                 sb.append('}');
                 return;
@@ -68,8 +82,9 @@ public final class SimpleJson {
                 boolean first = true;
                 for (Object x : it) {
                     if (!first) sb.append(',');
-                    writeVal(sb, x);
+                    writeVal(sb, w, x);
                     first = false;
+                    drain(sb, w);
                 }
                 sb.append(']');
                 return;
@@ -1,14 +1,16 @@
 package server.core;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class User {
     private final int id;
     private final String username;
-    private int credits;
+    private final AtomicInteger credits;
 
     public User(int id, String username, int initialCredits) {
         this.id = id;
         this.username = username;
-        this.credits = initialCredits;
+        this.credits = new AtomicInteger(initialCredits);
     }
 
     public int getId() {
@@ -20,10 +22,26 @@ public class User {
     }
 
     public int getCredits() {
-        return credits;
+        return credits.get();
     }
 
     public void setCredits(int credits) {
-        this.credits = credits;
+        this.credits.set(credits);
+    }
+
+    /** Adds {@code amount} (saturating at Integer.MAX_VALUE) and returns the new balance. */
+    public int addCredits(int amount) {
+        if (amount < 0) throw new IllegalArgumentException("amount must be >= 0");
+        return credits.accumulateAndGet(amount, (c, a) -> (int) Math.min(Integer.MAX_VALUE, (long) c + a));
+    }
+
+    /** Takes up to {@code amount}, as much as the balance allows, and returns how much was taken. */
+    public int debitUpTo(int amount) {
+        if (amount < 0) throw new IllegalArgumentException("amount must be >= 0");
+        while (true) {
+            int c = credits.get();
+            int take = Math.min(Math.max(c, 0), amount);
+            if (take == 0 || credits.compareAndSet(c, c - take)) return take;
+        }
     }
 }
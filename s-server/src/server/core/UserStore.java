@@ -45,7 +45,6 @@ public class UserStore {
     public int charge(String userId, int amount) {
         User u = getById(userId);
         if (u == null) return 0;
-        u.setCredits(u.getCredits() + amount);
-        return u.getCredits();
+        return u.addCredits(amount);
     }
 }
@@ -0,0 +1,53 @@
+package server.core;
+
+import sengine.Program;
+import sengine.ProgramParser;
+import sengine.Runner;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Checks that programs survive {@link ProgramStore} both in memory and through a persistent store
+ * reopened from disk, including an unnamed program.
+ *
+ * Usage: java server.core.ProgramStoreCheck [program.xml]; defaults to minus.xml in the working
+ * directory. Exits with status 1 on the first failure.
+ */
+public final class ProgramStoreCheck {
+
+    private static final List<Integer> INPUTS = List.of(7, 3);
+
+    public static void main(String[] args) throws Exception {
+        Program named = ProgramParser.parseFromXml(new File(args.length == 0 ? "minus.xml" : args[0]));
+        Program unnamed = new Program(null, named.instructions, named.functions);
+        int expectedY = Runner.run(named, 0, INPUTS).y;
+
+        ProgramStore mem = new ProgramStore();
+        String id = mem.put(unnamed);
+        expect(id.equals(mem.put(unnamed)), "same content, same id");
+        expect(mem.get(id).name == null, "unnamed in memory");
+
+        Path dir = Files.createTempDirectory("program-store-check");
+        try (ProgramStore disk = ProgramStore.usePersistent(dir, 1)) {
+            expect(id.equals(disk.put(unnamed)), "id does not depend on the store");
+            disk.put(named);
+        }
+        try (ProgramStore reopened = ProgramStore.usePersistent(dir, 1)) {
+            Program p = reopened.get(id);
+            expect(p != null && p.name == null, "unnamed after reopening");
+            expect(Runner.run(p, 0, INPUTS).y == expectedY, "same y after reopening");
+            expect(reopened.list().size() == 2, "both programs listed");
+        }
+
+        System.out.println("OK");
+    }
+
+    private static void expect(boolean ok, String what) {
+        if (ok) return;
+        System.out.println("FAILED: " + what);
+        System.exit(1);
+    }
+}